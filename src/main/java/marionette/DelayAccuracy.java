@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The accuracy of {@link Macro#delay(int)}. The lateness is the time between the requested
+ * deadline and the actual resumption of the macro.
+ */
+public final class DelayAccuracy {
+
+    /** The number of delays. */
+    private static final LongAdder count = new LongAdder();
+
+    /** The total lateness in nanoseconds. */
+    private static final LongAdder total = new LongAdder();
+
+    /** The largest lateness in nanoseconds. */
+    private static final AtomicLong max = new AtomicLong();
+
+    /**
+     * Hide constructor.
+     */
+    private DelayAccuracy() {
+    }
+
+    /**
+     * Retrieve the number of measured delays.
+     * 
+     * @return
+     */
+    public static long count() {
+        return count.sum();
+    }
+
+    /**
+     * Retrieve the average lateness of delays.
+     * 
+     * @param unit The time unit.
+     * @return
+     */
+    public static long averageLateness(TimeUnit unit) {
+        long count = DelayAccuracy.count.sum();
+        return count == 0 ? 0 : unit.convert(total.sum() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Retrieve the largest lateness of delays.
+     * 
+     * @param unit The time unit.
+     * @return
+     */
+    public static long maxLateness(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Clear all measurements.
+     */
+    public static void reset() {
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * Record the lateness of delay.
+     * 
+     * @param lateness The lateness in nanoseconds.
+     */
+    static void record(long lateness) {
+        count.increment();
+        total.add(lateness);
+        max.accumulateAndGet(lateness, Math::max);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer single-consumer ring buffer of primitive event records. The native
+ * hook thread publishes records without locking or allocation, and the dispatcher thread consumes
+ * them in order. The last quarter of the buffer is reserved for press and release records, so the
+ * flood of mouse moves never pushes out the transitions which the lanes, gestures and watchers
+ * depend on.
+ */
+class EventRing {
+
+    /** The number of busy loops before the consumer parks. */
+    private static final int Spin = 256;
+
+    /** The index mask. */
+    private final int mask;
+
+    /** The number of used slots from which only press and release records are accepted. */
+    private final int reserve;
+
+    /** The event sequence number. */
+    private final long[] sequences;
+
+    /** The event type. */
+    private final int[] types;
+
+    /** The event target index. */
+    private final int[] indexes;
+
+    /** The mouse location. */
+    private final int[] xs;
+
+    /** The mouse location. */
+    private final int[] ys;
+
+    /** The event time. */
+    private final long[] times;
+
+    /** The mouse wheel delta. */
+    private final double[] deltas;
+
+    /** The next sequence to read, written by the consumer only. */
+    private volatile long head;
+
+    /** The next sequence to write, written by the producer only. */
+    private volatile long tail;
+
+    /** The parked consumer. */
+    private volatile Thread waiter;
+
+    /** The number of discarded records, written by the producer only. */
+    private volatile long dropped;
+
+    /**
+     * @param capacity The buffer size, it must be power of two.
+     */
+    EventRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of two. [" + capacity + "]");
+        }
+
+        this.mask = capacity - 1;
+        this.reserve = capacity - capacity / 4;
+        this.sequences = new long[capacity];
+        this.types = new int[capacity];
+        this.indexes = new int[capacity];
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.times = new long[capacity];
+        this.deltas = new double[capacity];
+    }
+
+    /**
+     * Publish the event record. This method must be called from the single producer thread.
+     * 
+     * @param number The event sequence number.
+     * @param type The event type.
+     * @param index The event target index.
+     * @param x The mouse location.
+     * @param y The mouse location.
+     * @param time The event time.
+     * @param delta The mouse wheel delta.
+     * @return Whether the record was accepted or not.
+     */
+    boolean publish(long number, int type, int index, int x, int y, long time, double delta) {
+        long sequence = tail;
+        long used = sequence - head;
+        if (mask < used || (reserve <= used && MacroDefinition.Release < type)) {
+            dropped++;
+            return false;
+        }
+
+        int slot = (int) sequence & mask;
+        sequences[slot] = number;
+        types[slot] = type;
+        indexes[slot] = index;
+        xs[slot] = x;
+        ys[slot] = y;
+        times[slot] = time;
+        deltas[slot] = delta;
+        tail = sequence + 1;
+
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Consume records until the current thread is interrupted. This method must be called from the
+     * single consumer thread.
+     * 
+     * @param handler The record handler.
+     */
+    void consume(Handler handler) {
+        int spin = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            long sequence = head;
+
+            if (sequence == tail) {
+                if (spin++ < Spin) {
+                    Thread.onSpinWait();
+                } else {
+                    waiter = Thread.currentThread();
+                    if (sequence == tail) {
+                        LockSupport.park(this);
+                    }
+                    waiter = null;
+                    spin = 0;
+                }
+            } else {
+                int slot = (int) sequence & mask;
+                try {
+                    handler.handle(sequences[slot], types[slot], indexes[slot], xs[slot], ys[slot], times[slot], deltas[slot]);
+                } catch (Throwable e) {
+                    // the consumer must survive the broken handler
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                } finally {
+                    head = sequence + 1;
+                }
+                spin = 0;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the number of records which are discarded because the buffer was full.
+     * 
+     * @return
+     */
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * The record handler.
+     */
+    interface Handler {
+
+        /**
+         * Handle the event record.
+         * 
+         * @param sequence The event sequence number.
+         * @param type The event type.
+         * @param index The event target index.
+         * @param x The mouse location.
+         * @param y The mouse location.
+         * @param time The event time.
+         * @param delta The mouse wheel delta.
+         */
+        void handle(long sequence, int type, int index, int x, int y, long time, double delta);
+    }
+}
\ No newline at end of file
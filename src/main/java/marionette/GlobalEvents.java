@@ -12,87 +12,503 @@ package marionette;
 import static java.lang.Boolean.TRUE;
 
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
-import com.sun.jna.NativeLong;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
 import com.sun.jna.Pointer;
-import com.sun.jna.Structure;
-import com.sun.jna.platform.win32.BaseTSD.ULONG_PTR;
 import com.sun.jna.platform.win32.Kernel32;
 import com.sun.jna.platform.win32.User32;
 import com.sun.jna.platform.win32.WinDef;
 import com.sun.jna.platform.win32.WinDef.DWORD;
-import com.sun.jna.platform.win32.WinDef.LPARAM;
-import com.sun.jna.platform.win32.WinDef.LRESULT;
-import com.sun.jna.platform.win32.WinDef.WPARAM;
+import com.sun.jna.platform.win32.WinDef.HWND;
+import com.sun.jna.platform.win32.WinDef.LONG;
+import com.sun.jna.platform.win32.WinNT.HANDLE;
 import com.sun.jna.platform.win32.WinUser;
 import com.sun.jna.platform.win32.WinUser.HHOOK;
 import com.sun.jna.platform.win32.WinUser.HOOKPROC;
-import com.sun.jna.platform.win32.WinUser.KBDLLHOOKSTRUCT;
-import com.sun.jna.platform.win32.WinUser.LowLevelKeyboardProc;
+import com.sun.jna.platform.win32.WinUser.LASTINPUTINFO;
+import com.sun.jna.platform.win32.WinUser.WinEventProc;
+
+import kiss.Disposable;
+import kiss.I;
+import kiss.Variable;
+import marionette.KeyState.Watcher;
 
 class GlobalEvents {
 
+    /** The executor for macros. */
+    private static final ExecutorService executor = new ThreadPoolExecutor(4, 256, 30, TimeUnit.SECONDS, new SynchronousQueue(), runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName(NativeHook.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The executor for macros which run on virtual thread. */
+    private static final ExecutorService virtualExecutor = Executors
+            .newThreadPerTaskExecutor(Thread.ofVirtual().name(MacroOption.VirtualThread.name(), 0).factory());
+
+    /**
+     * The merged event queue between the hook thread and the dispatcher. The keyboard and mouse
+     * events are published in the order the system delivered them to the hook thread.
+     */
+    private static final EventRing queue = new EventRing(1024);
+
+    /** The sequence number generator of native events, written by the hook thread only. */
+    private static long sequence;
+
+    /** The single thread which owns all native hooks. */
+    private static final HookThread hookThread = new HookThread();
+
     /** The keyboard hook. */
     private static NativeKeyboardHook keyboardHook = new NativeKeyboardHook();
 
     /** The keyboard hook. */
     private static NativeMouseHook mouseHook = new NativeMouseHook();
 
+    /** The window hook. */
+    private static NativeWindowHook windowHook = new NativeWindowHook();
+
+    /** The watchdog which inspects the health of the native hooks. */
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName(HookHealth.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The silence (in milliseconds) of the hook while the user is active which triggers the probe. */
+    private static final long Tolerance = 1000;
+
+    /** The service state. */
+    private static boolean initialized;
+
     /**
-     * Start native hook.
+     * Retrieve the number of events which are discarded because the dispatcher fell behind.
+     * 
+     * @return
      */
-    static void initializeNativeHook() {
-        keyboardHook.install();
-        mouseHook.install();
+    static long droppedEvents() {
+        return queue.dropped();
+    }
+
+    /**
+     * Select the executor which runs the specified macro.
+     * 
+     * @param macro The target definition.
+     * @return The virtual thread executor for {@link MacroOption#VirtualThread}, the pooled one
+     *         otherwise.
+     */
+    static Executor executor(MacroDefinition macro) {
+        return macro.virtual ? virtualExecutor : executor;
+    }
+
+    /**
+     * Start native hook. The keyboard and mouse hooks are installed on demand, see
+     * {@link #require(boolean, boolean, Variable)}.
+     */
+    static synchronized void initializeNativeHook() {
+        if (!initialized) {
+            initialized = true;
+            hookThread.execute(windowHook::install);
+
+            Thread dispatcher = new Thread(() -> queue.consume(GlobalEvents::dispatch));
+            dispatcher.setName("EventDispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+
+            watchdog.scheduleWithFixedDelay(GlobalEvents::inspect, 1, 1, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(GlobalEvents::disposeNativeHook));
+        }
     }
 
     /**
      * Stop native hook.
      */
     static void disposeNativeHook() {
-        keyboardHook.uninstall();
-        mouseHook.uninstall();
+        watchdog.shutdownNow();
+        hookThread.quit();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Require the native hooks while the specified activation state is enabled. Each hook is
+     * installed only while at least one enabled definition requires it, so no input event pays the
+     * round trip to this process when there is nothing to do.
+     * 
+     * @param keyboard The keyboard hook is required or not.
+     * @param mouse The mouse hook is required or not.
+     * @param enable The activation state.
+     * @return The disposer which withdraws the requirement.
+     */
+    static Disposable require(boolean keyboard, boolean mouse, Variable<Boolean> enable) {
+        boolean[] active = new boolean[1];
+
+        return enable.observing()
+                .to(value -> demand(active, keyboard, mouse, TRUE.equals(value)))
+                .add(() -> demand(active, keyboard, mouse, false));
     }
 
     /**
+     * Update the demand of the native hooks.
      * 
+     * @param active The current state of the requirement.
+     * @param keyboard The keyboard hook is required or not.
+     * @param mouse The mouse hook is required or not.
+     * @param on The new state of the requirement.
      */
-    protected static abstract class NativeHook<T> implements Runnable, HOOKPROC {
+    private static void demand(boolean[] active, boolean keyboard, boolean mouse, boolean on) {
+        synchronized (active) {
+            if (active[0] != on) {
+                active[0] = on;
+                if (keyboard) keyboardHook.demand(on);
+                if (mouse) mouseHook.demand(on);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the generation of the foreground window state. It is incremented whenever the
+     * foreground window or its title is changed.
+     * 
+     * @return A negative value means that the window state is not tracked.
+     */
+    static long windowGeneration() {
+        return windowHook.generation;
+    }
+
+    /**
+     * Retrieve the foreground window. The tracked window is returned without any native call while
+     * the window hook is active.
+     * 
+     * @return
+     */
+    static Window foreground() {
+        Window window = windowHook.window;
+        return window != null && 0 <= windowHook.generation ? window : Window.now();
+    }
+
+    /**
+     * Decide the window condition on the hook thread. Only the precomputed decision is used in the
+     * degraded mode, so the hook never evaluates the actual condition which may be slow.
+     * 
+     * @param condition The window condition.
+     * @param now The foreground window.
+     * @return A result.
+     */
+    static boolean decide(Predicate<Window> condition, Window now) {
+        if (!HookHealth.degraded) {
+            return condition.test(now);
+        } else if (condition instanceof WindowCondition cached) {
+            return cached.decided(now);
+        } else {
+            return condition == WindowCondition.Any;
+        }
+    }
+
+    /**
+     * Inspect the health of the native hooks on the watchdog thread.
+     */
+    private static void inspect() {
+        try {
+            LASTINPUTINFO info = new LASTINPUTINFO();
+            User32.INSTANCE.GetLastInputInfo(info);
+            long idle = Integer.toUnsignedLong(Kernel32.INSTANCE.GetTickCount() - info.dwTime);
+
+            boolean dead = keyboardHook.inspect(idle) | mouseHook.inspect(idle);
+            HookHealth.inspect(dead);
+        } catch (Throwable e) {
+            // the watchdog must survive the broken listener
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Dispatch the queued event to the macros on the dispatcher thread. Each definition receives
+     * the events through its own {@link Lane}, so the delivery order is preserved per definition.
+     * 
+     * @param sequence The event sequence number.
+     * @param type The event type.
+     * @param index The event target index.
+     * @param x The mouse location.
+     * @param y The mouse location.
+     * @param time The event time.
+     * @param delta The mouse wheel delta.
+     */
+    private static void dispatch(long sequence, int type, int index, int x, int y, long time, double delta) {
+        InputEvent event = null;
+        Window now = null;
+
+        // the plan contains only the enabled definitions
+        for (MacroDefinition macro : MacroDefinition.table.listeners[type][index]) {
+            // resolve the foreground window at most once and only when it is required
+            if (now == null) {
+                now = foreground();
+            }
+
+            if (macro.windowConditon.test(now)) {
+                if (event == null) {
+                    event = new InputEvent(sequence, x, y, time, delta, 0);
+                }
+                macro.post(event, executor(macro));
+            }
+        }
+
+        if (type == MacroDefinition.Press || type == MacroDefinition.Release) {
+            Boolean state = type == MacroDefinition.Press;
+
+            for (Watcher watcher : KeyState.watchers(index)) {
+                if (watcher.enable.is(TRUE)) {
+                    watcher.lane.post(() -> watcher.signaling.accept(state), executor);
+                }
+            }
+        }
+    }
+
+    /**
+     * The single thread which installs the keyboard, mouse and window hooks and runs the message
+     * loop for all of them. The system calls every hook procedure on this thread in the order the
+     * input arrives, so the keyboard and mouse events form one ordered stream. Other threads never
+     * touch the hooks directly, they send commands through the thread message queue instead.
+     */
+    private static class HookThread implements Runnable {
+
+        /** The thread message which requests to execute the queued commands. */
+        private static final int WM_EXECUTE = 0x8000; // WM_APP
+
+        /** The flag for PeekMessage which leaves the message in the queue. */
+        private static final int PM_NOREMOVE = 0;
 
-        /** The actual executor. */
-        private final ExecutorService executor = new ThreadPoolExecutor(4, 256, 30, TimeUnit.SECONDS, new SynchronousQueue(), runnable -> {
-            Thread thread = new Thread(runnable);
-            thread.setName(NativeHook.class.getSimpleName());
-            thread.setDaemon(true);
-            return thread;
-        });
+        /** The queued commands. */
+        private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue();
+
+        /** The message queue of the hook thread is ready. */
+        private final CountDownLatch ready = new CountDownLatch(1);
+
+        /** The actual thread. */
+        private Thread thread;
+
+        private volatile int threadId;
+
+        /**
+         * Execute the command on the hook thread asynchronously. The commands are executed in the
+         * order they are requested.
+         * 
+         * @param command
+         */
+        void execute(Runnable command) {
+            commands.add(command);
+
+            try {
+                start().await();
+                User32.INSTANCE.PostThreadMessage(threadId, WM_EXECUTE, new WinDef.WPARAM(), new WinDef.LPARAM());
+            } catch (InterruptedException e) {
+                throw I.quiet(e);
+            }
+        }
+
+        /**
+         * Start the hook thread if needed.
+         * 
+         * @return The latch which is released when the thread can receive messages.
+         */
+        private synchronized CountDownLatch start() {
+            if (thread == null) {
+                thread = new Thread(this);
+                thread.setName(NativeHook.class.getSimpleName());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return ready;
+        }
+
+        /**
+         * Stop the message loop and remove all hooks.
+         */
+        void quit() {
+            Thread thread;
+
+            synchronized (this) {
+                thread = this.thread;
+            }
+
+            if (thread != null) {
+                try {
+                    ready.await();
+                    User32.INSTANCE.PostThreadMessage(threadId, WinUser.WM_QUIT, new WinDef.WPARAM(), new WinDef.LPARAM());
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw I.quiet(e);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            WinUser.MSG message = new WinUser.MSG();
+
+            try {
+                threadId = Kernel32.INSTANCE.GetCurrentThreadId();
+
+                // force the system to create the message queue before any thread message is posted
+                User32.INSTANCE.PeekMessage(message, null, 0, 0, PM_NOREMOVE);
+                ready.countDown();
+
+                while (0 < User32.INSTANCE.GetMessage(message, new WinDef.HWND(Pointer.NULL), 0, 0)) {
+                    if (message.message == WM_EXECUTE) {
+                        Runnable command;
+                        while ((command = commands.poll()) != null) {
+                            try {
+                                command.run();
+                            } catch (Throwable e) {
+                                Thread thread = Thread.currentThread();
+                                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                ready.countDown();
+                keyboardHook.uninstall();
+                mouseHook.uninstall();
+                windowHook.uninstall();
+            }
+        }
+    }
+
+    /**
+     * The low-level hook which is installed on the {@link HookThread}.
+     */
+    protected static abstract class NativeHook implements LowLevelProc {
 
         /** The native hook. */
-        protected HHOOK hook;
+        protected volatile HHOOK hook;
 
-        private int threadId;
+        /** The number of enabled definitions which require this hook. */
+        private int demand;
+
+        /** The time (by {@link System#nanoTime()}) of the last callback. */
+        private volatile long alive;
+
+        /** The time (by {@link System#nanoTime()}) when the probe was sent. */
+        private long probed;
+
+        /** The probe is waiting for the answer or not. */
+        private boolean probing;
+
+        /** The harmless native input which passes through this hook. */
+        private final Memory probe = new Memory(InputBatch.Size);
+
+        {
+            probe(probe);
+        }
 
         /**
-         * Install service.
+         * Increase or decrease the demand of this hook. The native hook is installed when the first
+         * demand arrives and is removed when the last one leaves.
+         * 
+         * @param increase
          */
-        void install() {
-            executor.execute(this);
-            Runtime.getRuntime().addShutdownHook(new Thread(this::uninstall));
+        synchronized void demand(boolean increase) {
+            if (increase) {
+                if (demand++ == 0) {
+                    hookThread.execute(this::install);
+                }
+            } else if (0 < demand && --demand == 0) {
+                hookThread.execute(this::uninstall);
+            }
+        }
+
+        /**
+         * Install service. This method must be called on the hook thread.
+         */
+        private void install() {
+            if (hook == null) {
+                alive = System.nanoTime();
+                hook = User32.INSTANCE.SetWindowsHookEx(hookType(), this, Kernel32.INSTANCE.GetModuleHandle(null), 0);
+                KeyState.track(hookType() == WinUser.WH_MOUSE_LL, hook != null);
+                reset();
+            }
+        }
+
+        /**
+         * Clear the state which is tracked by this hook, the transitions while the hook was absent
+         * are unknown. This method is called on the hook thread.
+         */
+        protected void reset() {
         }
 
         /**
-         * Uninstall service.
+         * Uninstall service. This method must be called on the hook thread.
          */
         void uninstall() {
-            User32.INSTANCE.PostThreadMessage(threadId, WinUser.WM_QUIT, new WinDef.WPARAM(), new WinDef.LPARAM());
-            executor.shutdownNow();
+            if (hook != null) {
+                KeyState.track(hookType() == WinUser.WH_MOUSE_LL, false);
+                User32.INSTANCE.UnhookWindowsHookEx(hook);
+                hook = null;
+            }
+        }
+
+        /**
+         * Reinstall service. This method must be called on the hook thread.
+         */
+        private void reinstall() {
+            if (hook != null) {
+                uninstall();
+                install();
+            }
+        }
+
+        /**
+         * Inspect the liveness of this hook on the watchdog thread. The hook which is silent while
+         * the user is active receives the harmless probe input, and it is reinstalled when the probe
+         * is not answered until the next inspection.
+         * 
+         * @param idle The time (in milliseconds) since the last user input.
+         * @return Whether this hook was dead or not.
+         */
+        boolean inspect(long idle) {
+            if (hook == null) {
+                probing = false;
+                return false;
+            }
+
+            if (probing) {
+                probing = false;
+
+                if (alive - probed < 0) {
+                    hookThread.execute(this::reinstall);
+                    return true;
+                }
+            } else if (idle + Tolerance < TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - alive)) {
+                probing = true;
+                probed = System.nanoTime();
+                InputBatch.send(probe, 1);
+            }
+            return false;
         }
 
+        /**
+         * Write the harmless input which passes through this hook.
+         * 
+         * @param input The native INPUT record.
+         */
+        protected abstract void probe(Pointer input);
+
         /**
          * <p>
          * Configure hook type.
@@ -106,44 +522,67 @@ class GlobalEvents {
          * {@inheritDoc}
          */
         @Override
-        public final void run() {
-            threadId = Kernel32.INSTANCE.GetCurrentThreadId();
-            hook = User32.INSTANCE.SetWindowsHookEx(hookType(), this, Kernel32.INSTANCE.GetModuleHandle(null), 0);
+        public final long callback(int nCode, long wParam, Pointer info) {
+            long start = alive = System.nanoTime();
+            boolean consumed = 0 <= nCode && process((int) wParam, info);
+            HookHealth.record(System.nanoTime() - start);
 
-            User32.INSTANCE.GetMessage(new WinUser.MSG(), new WinDef.HWND(Pointer.NULL), 0, 0);
-            User32.INSTANCE.UnhookWindowsHookEx(hook);
+            if (consumed) {
+                return -1;
+            }
+
+            HHOOK current = hook;
+            return User.CallNextHookEx(current == null ? null : current.getPointer(), nCode, wParam, info);
         }
 
         /**
-         * Handle key event.
+         * Process the native event on the hook thread. The event structure is read straight from
+         * the native memory, so this method must not retain it.
          * 
-         * @param key
+         * @param message The window message.
+         * @param info The pointer to the native event structure.
+         * @return Whether the event should be consumed or not.
          */
-        protected final boolean handle(T key, List<MacroDefinition> macros, KeyEvent event) {
-            boolean consumed = false;
-            Window now = Window.now();
+        protected abstract boolean process(int message, Pointer info);
 
-            // built-in state management macro
+        /**
+         * Handle the native event on the hook thread. The event is queued for the dispatcher and
+         * only the consumption is decided synchronously.
+         * 
+         * @param type The event type.
+         * @param index The event target index.
+         * @param x The mouse location.
+         * @param y The mouse location.
+         * @param time The event time.
+         * @param delta The mouse wheel delta.
+         * @return Whether the event should be consumed or not.
+         */
+        protected final boolean handle(int type, int index, int x, int y, long time, double delta) {
+            MacroDefinition.Table table = MacroDefinition.table;
+            if (type == MacroDefinition.Press || type == MacroDefinition.Release ? table.listened.contains(index)
+                    : table.listeners[type][index].length != 0) {
+                queue.publish(++sequence, type, index, x, y, time, delta);
+            }
 
-            for (MacroDefinition macro : macros) {
-                if (macro.enable.is(TRUE) && macro.windowConditon.test(now) && macro.condition.test(key)) {
-                    executor.execute(() -> {
-                        macro.events.accept(event);
-                    });
+            MacroDefinition[] consumables = table.consumables[type][index];
+            if (consumables.length == 0) {
+                return false;
+            }
 
-                    if (macro.consumable) {
-                        consumed = true;
-                    }
+            Window now = foreground();
+            for (MacroDefinition macro : consumables) {
+                if (decide(macro.windowConditon, now)) {
+                    return true;
                 }
             }
-            return consumed;
+            return false;
         }
     }
 
     /**
      * @version 2018/11/19 9:45:39
      */
-    private static class NativeKeyboardHook extends NativeHook implements LowLevelKeyboardProc {
+    private static class NativeKeyboardHook extends NativeHook {
 
         /**
          * <p>
@@ -155,6 +594,18 @@ class GlobalEvents {
          */
         private final int InjectedEvent = 1 << 4;
 
+        /** The offset of KBDLLHOOKSTRUCT#vkCode. */
+        private static final int VirtualCode = 0;
+
+        /** The offset of KBDLLHOOKSTRUCT#flags. */
+        private static final int Flags = 8;
+
+        /**
+         * The offset of KBDLLHOOKSTRUCT#time. It shares the system tick clock with the mouse event,
+         * so the time stamps of the merged event stream are comparable.
+         */
+        private static final int Time = 12;
+
         /** The key mapper. */
         private final Key[] keys = new Key[256];
 
@@ -169,10 +620,23 @@ class GlobalEvents {
                     keys[key.virtualCode] = key;
                 }
             }
+
+            // the extended flag distinguishes the keys only when both variants are defined (e.g.
+            // the right control and alt are reported with the flag, the numpad arrows without it)
+            for (int i = 0; i < 256; i++) {
+                if (keys[i] == null) {
+                    keys[i] = extendedKeys[i];
+                } else if (extendedKeys[i] == null) {
+                    extendedKeys[i] = keys[i];
+                }
+            }
         }
 
-        /** The record for the last downed key to decimate a flood of key down Signal. */
-        private Key downLatest;
+        /** The physical pressed state of each key, accessed by the hook thread only. */
+        private final boolean[] physical = new boolean[Key.values().length];
+
+        /** The remap which is applied to the pressed key, it must be kept until the key is released. */
+        private final Remap[] remapped = new Remap[Key.values().length];
 
         /**
          * {@inheritDoc}
@@ -186,37 +650,78 @@ class GlobalEvents {
          * {@inheritDoc}
          */
         @Override
-        public LRESULT callback(int nCode, WPARAM wParam, KBDLLHOOKSTRUCT info) {
-            boolean consumed = false;
-            boolean userInput = (info.flags & InjectedEvent) == 0;
-            if (0 <= nCode && userInput) {
-                Key key = (info.flags & 1) == 0 ? keys[info.vkCode] : extendedKeys[info.vkCode];
-
-                switch (wParam.intValue()) {
-                case WinUser.WM_KEYDOWN:
-                case WinUser.WM_SYSKEYDOWN:
-                    if (downLatest != key) {
-                        downLatest = key;
-                        consumed = handle(key, MacroDefinition.presses, KeyEvent.of(key));
-                    }
-                    break;
+        protected void reset() {
+            Arrays.fill(physical, false);
+        }
 
-                case WinUser.WM_KEYUP:
-                case WinUser.WM_SYSKEYUP:
-                    downLatest = null;
-                    consumed = handle(key, MacroDefinition.releases, KeyEvent.of(key));
-                    break;
-                }
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void probe(Pointer input) {
+            // release the unassigned virtual key, no application reacts to it
+            InputBatch.key(input, 0, 0xE8, 0, WinUser.KEYBDINPUT.KEYEVENTF_KEYUP);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean process(int message, Pointer info) {
+            int flags = info.getInt(Flags);
+            int code = info.getInt(VirtualCode) & 0xFF;
+            Key key = (flags & 1) == 0 ? keys[code] : extendedKeys[code];
+            if (key == null) {
+                return false;
+            }
+
+            // the shared state table reflects the injected events too
+            boolean press = message == WinUser.WM_KEYDOWN || message == WinUser.WM_SYSKEYDOWN;
+            KeyState.update(key, press);
+
+            if ((flags & InjectedEvent) != 0) {
+                return false;
+            }
+
+            // the key down of the physically pressed key is the autorepeat, the emulated inputs
+            // never affect the decision
+            int index = key.ordinal();
+            boolean repeat = press && physical[index];
+            physical[index] = press;
+
+            // the remap swallows the original event and injects the replacement synchronously
+            Remap remap = remapped[index];
+            if (remap == null && press) {
+                remap = Remap.find(index);
+            }
+
+            if (remap != null) {
+                remapped[index] = press ? remap : null;
+                remap.inject(press);
+                return true;
+            }
+
+            long time = info.getInt(Time) & 0xFFFFFFFFL;
+
+            switch (message) {
+            case WinUser.WM_KEYDOWN:
+            case WinUser.WM_SYSKEYDOWN:
+                return handle(repeat ? MacroDefinition.Repeat : MacroDefinition.Press, index, 0, 0, time, 0);
+
+            case WinUser.WM_KEYUP:
+            case WinUser.WM_SYSKEYUP:
+                return handle(MacroDefinition.Release, index, 0, 0, time, 0);
+
+            default:
+                return false;
             }
-            return consumed ? new LRESULT(-1)
-                    : User32.INSTANCE.CallNextHookEx(hook, nCode, wParam, new LPARAM(Pointer.nativeValue(info.getPointer())));
         }
     }
 
     /**
      * @version 2018/11/19 9:45:34
      */
-    private static class NativeMouseHook extends NativeHook implements LowLevelMouseProc {
+    private static class NativeMouseHook extends NativeHook {
 
         /**
          * <p>
@@ -230,6 +735,26 @@ class GlobalEvents {
          */
         private static final int InjectedEvent = 1;
 
+        /**
+         * The offset of MSLLHOOKSTRUCT#pt, the x- and y-coordinates of the cursor in per-monitor-aware
+         * screen coordinates.
+         */
+        private static final int Point = 0;
+
+        /**
+         * The offset of MSLLHOOKSTRUCT#mouseData. If the message is WM_MOUSEWHEEL, the high-order
+         * word of this member is the wheel delta. A positive value indicates that the wheel was
+         * rotated forward, away from the user; a negative value indicates that the wheel was rotated
+         * backward, toward the user. One wheel click is defined as WHEEL_DELTA, which is 120.
+         */
+        private static final int MouseData = 8;
+
+        /** The offset of MSLLHOOKSTRUCT#flags. */
+        private static final int Flags = 12;
+
+        /** The offset of MSLLHOOKSTRUCT#time. */
+        private static final int Time = 16;
+
         /**
          * {@inheritDoc}
          */
@@ -242,196 +767,190 @@ class GlobalEvents {
          * {@inheritDoc}
          */
         @Override
-        public LRESULT callback(int nCode, WPARAM wParam, MSLLHOOKSTRUCT info) {
-            boolean consumed = false;
-            boolean userInput = (info.flags & InjectedEvent) == 0 || wParam.intValue() == 519 || wParam.intValue() == 520;
-            if (0 <= nCode && userInput) {
-                info.pt.time = info.time;
-
-                switch (wParam.intValue()) {
-                case 512: // WM_MOUSEMOVE
-                    consumed = handle(Key.MouseMiddle, MacroDefinition.mouseMove, info.pt);
-                    break;
-
-                case 513: // WM_LBUTTONDOWN
-                    consumed = handle(Key.MouseLeft, MacroDefinition.presses, info.pt);
-                    break;
-
-                case 514: // WM_LBUTTONUP
-                    consumed = handle(Key.MouseLeft, MacroDefinition.releases, info.pt);
-                    break;
-
-                case 516: // WM_RBUTTONDOWN
-                    consumed = handle(Key.MouseRight, MacroDefinition.presses, info.pt);
-                    break;
-
-                case 517: // WM_RBUTTONUP
-                    consumed = handle(Key.MouseRight, MacroDefinition.releases, info.pt);
-                    break;
-
-                case 519: // WM_MBUTTONDOWN
-                    consumed = handle(Key.MouseMiddle, MacroDefinition.presses, info.pt);
-                    break;
-
-                case 520: // WM_MBUTTONUP
-                    consumed = handle(Key.MouseMiddle, MacroDefinition.releases, info.pt);
-                    break;
-
-                case 522: // WM_MOUSEWHEEL
-                    info.pt.delta = info.mouseData.getHigh().doubleValue();
-                    consumed = handle(Key.MouseMiddle, MacroDefinition.mouseWheel, info.pt);
-                    break;
-                }
+        protected void probe(Pointer input) {
+            // move the cursor by zero
+            InputBatch.mouse(input, 0, 0, 0, 0x0001); // MOUSEEVENTF_MOVE
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean process(int message, Pointer info) {
+            // the state table reflects the injected events too
+            switch (message) {
+            case 513: // WM_LBUTTONDOWN
+            case 514: // WM_LBUTTONUP
+                KeyState.update(Key.MouseLeft, message == 513);
+                break;
+
+            case 516: // WM_RBUTTONDOWN
+            case 517: // WM_RBUTTONUP
+                KeyState.update(Key.MouseRight, message == 516);
+                break;
+
+            case 519: // WM_MBUTTONDOWN
+            case 520: // WM_MBUTTONUP
+                KeyState.update(Key.MouseMiddle, message == 519);
+                break;
+            }
+
+            boolean userInput = (info.getInt(Flags) & InjectedEvent) == 0 || message == 519 || message == 520;
+            if (!userInput) {
+                return false;
+            }
+
+            int x = info.getInt(Point);
+            int y = info.getInt(Point + 4);
+            long time = info.getInt(Time) & 0xFFFFFFFFL;
+
+            switch (message) {
+            case 512: // WM_MOUSEMOVE
+                return handle(MacroDefinition.Action, Mouse.Move.ordinal(), x, y, time, 0);
+
+            case 513: // WM_LBUTTONDOWN
+                return handle(MacroDefinition.Press, Key.MouseLeft.ordinal(), x, y, time, 0);
+
+            case 514: // WM_LBUTTONUP
+                return handle(MacroDefinition.Release, Key.MouseLeft.ordinal(), x, y, time, 0);
+
+            case 516: // WM_RBUTTONDOWN
+                return handle(MacroDefinition.Press, Key.MouseRight.ordinal(), x, y, time, 0);
+
+            case 517: // WM_RBUTTONUP
+                return handle(MacroDefinition.Release, Key.MouseRight.ordinal(), x, y, time, 0);
+
+            case 519: // WM_MBUTTONDOWN
+                return handle(MacroDefinition.Press, Key.MouseMiddle.ordinal(), x, y, time, 0);
+
+            case 520: // WM_MBUTTONUP
+                return handle(MacroDefinition.Release, Key.MouseMiddle.ordinal(), x, y, time, 0);
+
+            case 522: // WM_MOUSEWHEEL
+                return handle(MacroDefinition.Action, Mouse.Wheel.ordinal(), x, y, time, info.getShort(MouseData + 2));
+
+            default:
+                return false;
             }
-            return consumed ? new LRESULT(-1)
-                    : User32.INSTANCE.CallNextHookEx(hook, nCode, wParam, new LPARAM(Pointer.nativeValue(info.getPointer())));
         }
     }
 
     /**
-     * @version 2018/11/19 9:45:45
+     * Track the foreground window and its title.
      */
-    private static interface LowLevelMouseProc extends HOOKPROC {
+    private static class NativeWindowHook implements WinEventProc {
 
-        LRESULT callback(int nCode, WPARAM wParam, MSLLHOOKSTRUCT lParam);
-    }
+        /** The foreground window has changed. */
+        private static final int EVENT_SYSTEM_FOREGROUND = 0x0003;
 
-    /**
-     * @version 2018/11/19 9:45:47
-     */
-    public static class Point extends Structure implements KeyEvent {
+        /** The name of object has changed. */
+        private static final int EVENT_OBJECT_NAMECHANGE = 0x800C;
 
-        public NativeLong x;
+        /** The callback is called asynchronously from the message loop. */
+        private static final int WINEVENT_OUTOFCONTEXT = 0;
 
-        public NativeLong y;
+        /** The generation of the foreground window state. */
+        private volatile long generation = -1;
 
-        private long time;
+        /** The current foreground window. */
+        private HWND foreground;
 
-        private double delta;
+        /** The current foreground window. */
+        private volatile Window window;
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        protected List getFieldOrder() {
-            return Arrays.asList(new String[] {"x", "y"});
-        }
+        /** The native hook. */
+        private HANDLE foregroundHook;
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public int x() {
-            return x.intValue();
-        }
+        /** The native hook. */
+        private HANDLE titleHook;
 
         /**
-         * {@inheritDoc}
+         * Install service. This method must be called on the hook thread.
          */
-        @Override
-        public int y() {
-            return y.intValue();
-        }
+        void install() {
+            if (foregroundHook == null) {
+                foreground = User32.INSTANCE.GetForegroundWindow();
+                window = Window.of(foreground);
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public long time() {
-            return time;
-        }
+                foregroundHook = User32.INSTANCE
+                        .SetWinEventHook(EVENT_SYSTEM_FOREGROUND, EVENT_SYSTEM_FOREGROUND, null, this, 0, 0, WINEVENT_OUTOFCONTEXT);
+                titleHook = User32.INSTANCE
+                        .SetWinEventHook(EVENT_OBJECT_NAMECHANGE, EVENT_OBJECT_NAMECHANGE, null, this, 0, 0, WINEVENT_OUTOFCONTEXT);
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public double delta() {
-            return delta;
+                if (foregroundHook != null && titleHook != null) {
+                    generation = 0;
+                }
+            }
         }
 
         /**
-         * {@inheritDoc}
+         * Uninstall service. This method must be called on the hook thread.
          */
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = super.hashCode();
-            result = prime * result + ((x == null) ? 0 : x.hashCode());
-            result = prime * result + ((y == null) ? 0 : y.hashCode());
-            return result;
-        }
+        void uninstall() {
+            generation = -1;
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof Point) {
-                Point other = (Point) obj;
-                return x() == other.x() && y() == other.y();
-            }
-            return false;
+            if (foregroundHook != null) User32.INSTANCE.UnhookWinEvent(foregroundHook);
+            if (titleHook != null) User32.INSTANCE.UnhookWinEvent(titleHook);
+            foregroundHook = null;
+            titleHook = null;
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public String toString() {
-            return "Point [x=" + x + ", y=" + y + ", time=" + time + ", delta=" + delta + "]";
+        public void callback(HANDLE hook, DWORD event, HWND hwnd, LONG idObject, LONG idChild, DWORD thread, DWORD time) {
+            switch (event.intValue()) {
+            case EVENT_SYSTEM_FOREGROUND:
+                foreground = hwnd;
+                window = Window.of(hwnd);
+                generation++;
+                break;
+
+            case EVENT_OBJECT_NAMECHANGE:
+                // OBJID_WINDOW and CHILDID_SELF
+                if (idObject.intValue() == 0 && idChild.intValue() == 0 && hwnd != null && hwnd.equals(foreground)) {
+                    generation++;
+                }
+                break;
+            }
         }
     }
 
     /**
-     * Contains information about a low-level mouse input event.
+     * The low-level hook procedure which receives the native structure as raw pointer. All
+     * parameters and the result are primitive, so the callback needs no JNA structure marshalling.
      */
-    public static class MSLLHOOKSTRUCT extends Structure {
-
-        /**
-         * The x- and y-coordinates of the cursor, in per-monitor-aware screen coordinates.
-         */
-        public Point pt;
-
-        /**
-         * <p>
-         * If the message is WM_MOUSEWHEEL, the high-order word of this member is the wheel delta.
-         * The low-order word is reserved. A positive value indicates that the wheel was rotated
-         * forward, away from the user; a negative value indicates that the wheel was rotated
-         * backward, toward the user. One wheel click is defined as WHEEL_DELTA, which is 120.
-         * </p>
-         * <p>
-         * If the message is WM_XBUTTONDOWN, WM_XBUTTONUP, WM_XBUTTONDBLCLK, WM_NCXBUTTONDOWN,
-         * WM_NCXBUTTONUP, or WM_NCXBUTTONDBLCLK, the high-order word specifies which X button was
-         * pressed or released, and the low-order word is reserved. This value can be one or more of
-         * the following values. Otherwise, mouseData is not used.
-         * </p>
-         */
-        public DWORD mouseData;
+    private static interface LowLevelProc extends HOOKPROC {
 
         /**
-         * The event-injected flags. An application can use the following values to test the flags.
-         * Testing LLMHF_INJECTED (bit 0) will tell you whether the event was injected. If it was,
-         * then testing LLMHF_LOWER_IL_INJECTED (bit 1) will tell you whether or not the event was
-         * injected from a process running at lower integrity level.
+         * @param nCode The hook code.
+         * @param wParam The identifier of the message.
+         * @param lParam The pointer to the native event structure.
+         * @return The hook result.
          */
-        public int flags;
+        long callback(int nCode, long wParam, Pointer lParam);
+    }
 
-        /**
-         * The time stamp for this message.
-         */
-        public long time;
+    /**
+     * The direct mapping of USER32.DLL, the call on the hook thread needs neither argument array
+     * nor boxing.
+     */
+    private static final class User {
 
-        /**
-         * Additional information associated with the message.
-         */
-        public ULONG_PTR dwExtraInfo;
+        static {
+            Native.register("user32");
+        }
 
         /**
-         * {@inheritDoc}
+         * Passes the hook information to the next hook procedure in the current hook chain.
+         * 
+         * @param hhk This parameter is ignored.
+         * @param nCode The hook code passed to the current hook procedure.
+         * @param wParam The wParam value passed to the current hook procedure.
+         * @param lParam The lParam value passed to the current hook procedure.
+         * @return This value is returned by the next hook procedure in the chain.
          */
-        @Override
-        protected List getFieldOrder() {
-            return Arrays.asList(new String[] {"pt", "mouseData", "flags", "time", "dwExtraInfo"});
-        }
+        private static native long CallNextHookEx(Pointer hhk, int nCode, long wParam, Pointer lParam);
     }
 }
\ No newline at end of file
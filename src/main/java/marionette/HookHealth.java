@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.concurrent.TimeUnit;
+
+import kiss.Signal;
+import kiss.Signaling;
+
+/**
+ * The health of the native hooks. The system removes the low-level hook silently when its callback
+ * exceeds the timeout, so the callback duration is measured continuously and the watchdog
+ * reinstalls the hook which stops receiving events while the user is active. During the degraded
+ * mode, the hook evaluates only the precomputed consume decisions synchronously.
+ */
+public final class HookHealth {
+
+    /**
+     * The health event.
+     */
+    public enum Event {
+
+        /** The slow callback was detected and the hook switched to the degraded mode. */
+        Degraded,
+
+        /** The hook has been healthy for a while and left the degraded mode. */
+        Recovered,
+
+        /** The dead hook was detected and reinstalled. */
+        Reinstalled,
+
+        /** The event queue overflowed and some events were discarded. */
+        Overflowed;
+    }
+
+    /** The callback which takes longer than this duration (in nanoseconds) is slow. */
+    static final long SlowThreshold = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** The number of calm inspections to leave the degraded mode. */
+    private static final int RecoveryPeriod = 10;
+
+    /** The event notifier. */
+    private static final Signaling<Event> events = new Signaling();
+
+    /** The degraded mode. */
+    static volatile boolean degraded;
+
+    /** The number of callbacks, written by the hook thread only. */
+    private static volatile long callbacks;
+
+    /** The number of slow callbacks, written by the hook thread only. */
+    private static volatile long slowCallbacks;
+
+    /** The longest callback duration in nanoseconds, written by the hook thread only. */
+    private static volatile long maxCallbackTime;
+
+    /** The number of reinstallations, written by the watchdog only. */
+    private static volatile long reinstalls;
+
+    /** The degraded mode is notified or not. */
+    private static boolean reported;
+
+    /** The number of slow callbacks at the last inspection. */
+    private static long lastSlowCallbacks;
+
+    /** The number of successive calm inspections. */
+    private static int calm;
+
+    /** The number of discarded events at the last inspection. */
+    private static long lastDroppedEvents;
+
+    /**
+     * Hide constructor.
+     */
+    private HookHealth() {
+    }
+
+    /**
+     * Retrieve the total number of hook callbacks.
+     * 
+     * @return
+     */
+    public static long callbacks() {
+        return callbacks;
+    }
+
+    /**
+     * Retrieve the number of hook callbacks which took longer than the slow threshold (50ms).
+     * 
+     * @return
+     */
+    public static long slowCallbacks() {
+        return slowCallbacks;
+    }
+
+    /**
+     * Retrieve the longest hook callback duration.
+     * 
+     * @param unit The time unit.
+     * @return
+     */
+    public static long maxCallbackTime(TimeUnit unit) {
+        return unit.convert(maxCallbackTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Retrieve the number of hook reinstallations.
+     * 
+     * @return
+     */
+    public static long reinstalls() {
+        return reinstalls;
+    }
+
+    /**
+     * Retrieve the number of events which are discarded because the dispatcher fell behind. The
+     * press and release events are discarded only when the whole queue is full.
+     * 
+     * @return
+     */
+    public static long droppedEvents() {
+        return GlobalEvents.droppedEvents();
+    }
+
+    /**
+     * Test whether the hooks are running in the degraded mode or not.
+     * 
+     * @return
+     */
+    public static boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Observe the health events. The events are notified on the watchdog thread.
+     * 
+     * @return
+     */
+    public static Signal<Event> events() {
+        return events.expose;
+    }
+
+    /**
+     * Record the callback duration. This method is called on the hook thread.
+     * 
+     * @param time The callback duration in nanoseconds.
+     */
+    static void record(long time) {
+        callbacks++;
+
+        if (maxCallbackTime < time) {
+            maxCallbackTime = time;
+        }
+
+        if (SlowThreshold < time) {
+            slowCallbacks++;
+            degraded = true;
+        }
+    }
+
+    /**
+     * Update the health state. This method is called on the watchdog thread periodically.
+     * 
+     * @param dead The dead hook was reinstalled in this inspection.
+     */
+    static void inspect(boolean dead) {
+        if (dead) {
+            reinstalls++;
+            degraded = true;
+            events.accept(Event.Reinstalled);
+        }
+
+        long dropped = GlobalEvents.droppedEvents();
+        if (dropped != lastDroppedEvents) {
+            lastDroppedEvents = dropped;
+            events.accept(Event.Overflowed);
+        }
+
+        long slow = slowCallbacks;
+        calm = dead || slow != lastSlowCallbacks ? 0 : calm + 1;
+        lastSlowCallbacks = slow;
+
+        if (degraded) {
+            if (!reported) {
+                reported = true;
+                events.accept(Event.Degraded);
+            } else if (RecoveryPeriod <= calm) {
+                reported = false;
+                degraded = false;
+                events.accept(Event.Recovered);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import static com.sun.jna.platform.win32.WinUser.KEYBDINPUT.*;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.win32.WinUser.INPUT;
+
+/**
+ * Buffer of the emulated input events. The events which are emitted inside the batch scope are
+ * collected and submitted to the system with a single SendInput call, so the sequence costs one
+ * user-to-kernel transition and the other processes' input never lands in between. The buffer is
+ * flushed when the outermost scope is closed, when the macro waits (see {@link Macro#delay(int)})
+ * or when the buffer is full.
+ * <p>
+ * Each event is written straight into the preallocated native INPUT array by the field offset, so
+ * the emulation involves no reflective structure synchronization. The buffer is borrowed from the
+ * shared pool while the outermost scope is open, so even the thread-per-task virtual threads reuse
+ * the native memory instead of allocating it for each run.
+ */
+final class InputBatch {
+
+    /** The buffer which is borrowed by the current thread. */
+    private static final ThreadLocal<InputBatch> local = new ThreadLocal();
+
+    /** The idle buffers. */
+    private static final AtomicReferenceArray<InputBatch> pool = new AtomicReferenceArray(16);
+
+    /** The maximum number of the buffered events. */
+    private static final int Capacity = 64;
+
+    /** The offset of INPUT#input, the union is aligned to the pointer size. */
+    private static final int Union = Native.POINTER_SIZE;
+
+    /** The size of INPUT, the largest member of the union is MOUSEINPUT. */
+    static final int Size = Union + 16 + 2 * Native.POINTER_SIZE;
+
+    /** The offset of MOUSEINPUT#dx. */
+    private static final int MouseX = Union;
+
+    /** The offset of MOUSEINPUT#dy. */
+    private static final int MouseY = Union + 4;
+
+    /** The offset of MOUSEINPUT#dwFlags. */
+    private static final int MouseFlags = Union + 12;
+
+    /** The offset of KEYBDINPUT#wVk. */
+    private static final int KeyCode = Union;
+
+    /** The offset of KEYBDINPUT#wScan. */
+    private static final int KeyScan = Union + 2;
+
+    /** The offset of KEYBDINPUT#dwFlags. */
+    private static final int KeyFlags = Union + 4;
+
+    /** The preallocated native INPUT array. */
+    private final Memory inputs = new Memory((long) Capacity * Size);
+
+    /** The number of the buffered events. */
+    private int size;
+
+    /** The depth of the nested scopes. */
+    private int depth;
+
+    /**
+     * Hide constructor.
+     */
+    private InputBatch() {
+    }
+
+    /**
+     * Open the batch scope on the current thread. The outermost scope borrows the buffer from the
+     * pool.
+     * 
+     * @return The buffer of the current thread.
+     */
+    static InputBatch open() {
+        InputBatch batch = local.get();
+        if (batch == null) {
+            batch = borrow();
+            local.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * Close the batch scope, the buffered events are submitted and the buffer is returned to the
+     * pool when the outermost scope is closed.
+     */
+    void close() {
+        if (--depth == 0) {
+            try {
+                flush();
+            } finally {
+                local.remove();
+                restore(this);
+            }
+        }
+    }
+
+    /**
+     * Submit the buffered events of the current thread if any.
+     */
+    static void flushCurrent() {
+        InputBatch batch = local.get();
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Take the idle buffer from the pool, the new one is created only when the pool is empty.
+     * 
+     * @return
+     */
+    private static InputBatch borrow() {
+        for (int i = 0; i < pool.length(); i++) {
+            InputBatch batch = pool.getAndSet(i, null);
+            if (batch != null) {
+                return batch;
+            }
+        }
+        return new InputBatch();
+    }
+
+    /**
+     * Return the buffer to the pool, the surplus buffer is left to the garbage collector.
+     * 
+     * @param batch
+     */
+    private static void restore(InputBatch batch) {
+        for (int i = 0; i < pool.length(); i++) {
+            if (pool.compareAndSet(i, null, batch)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Buffer the key event.
+     * 
+     * @param key The key to emulate.
+     * @param press Press or release.
+     */
+    void key(Key key, boolean press) {
+        key(inputs, (long) size * Size, key, press);
+        end();
+    }
+
+    /**
+     * Buffer the mouse move event.
+     * 
+     * @param x The normalized absolute location.
+     * @param y The normalized absolute location.
+     */
+    void move(int x, int y) {
+        move(inputs, (long) size * Size, x, y);
+        end();
+    }
+
+    /**
+     * Finish writing the event.
+     */
+    private void end() {
+        if (++size == Capacity) {
+            flush();
+        }
+    }
+
+    /**
+     * Submit all buffered events with a single SendInput call.
+     */
+    private void flush() {
+        if (size != 0) {
+            int count = size;
+            size = 0;
+
+            send(inputs, count);
+        }
+    }
+
+    /**
+     * Write the key event into the native INPUT record.
+     * 
+     * @param memory The native INPUT array.
+     * @param offset The offset of the record.
+     * @param key The key to emulate.
+     * @param press Press or release.
+     */
+    static void key(Pointer memory, long offset, Key key, boolean press) {
+        if (key.mouse) {
+            mouse(memory, offset, 0, 0, (press ? key.on : key.off) | 0x8000); // MOUSEEVENTF_ABSOLUTE
+        } else {
+            key(memory, offset, key.virtualCode, key.scanCode, (press ? 0 : KEYEVENTF_KEYUP) | KEYEVENTF_SCANCODE | (key.extend ? KEYEVENTF_EXTENDEDKEY : 0));
+        }
+    }
+
+    /**
+     * Write the raw keyboard event into the native INPUT record.
+     * 
+     * @param memory The native INPUT array.
+     * @param offset The offset of the record.
+     * @param virtualCode The virtual key code.
+     * @param scanCode The hardware scan code.
+     * @param flags The KEYEVENTF flags.
+     */
+    static void key(Pointer memory, long offset, int virtualCode, int scanCode, int flags) {
+        clear(memory, offset, INPUT.INPUT_KEYBOARD);
+        memory.setShort(offset + KeyCode, (short) virtualCode);
+        memory.setShort(offset + KeyScan, (short) scanCode);
+        memory.setInt(offset + KeyFlags, flags);
+    }
+
+    /**
+     * Write the mouse move event into the native INPUT record.
+     * 
+     * @param memory The native INPUT array.
+     * @param offset The offset of the record.
+     * @param x The normalized absolute location.
+     * @param y The normalized absolute location.
+     */
+    static void move(Pointer memory, long offset, int x, int y) {
+        mouse(memory, offset, x, y, 0x0001 | 0x8000); // MOUSEEVENTF_MOVE | MOUSEEVENTF_ABSOLUTE
+    }
+
+    /**
+     * Write the mouse event into the native INPUT record.
+     * 
+     * @param memory The native INPUT array.
+     * @param offset The offset of the record.
+     * @param x The location or the motion.
+     * @param y The location or the motion.
+     * @param flags The MOUSEEVENTF flags.
+     */
+    static void mouse(Pointer memory, long offset, int x, int y, int flags) {
+        clear(memory, offset, INPUT.INPUT_MOUSE);
+        memory.setInt(offset + MouseX, x);
+        memory.setInt(offset + MouseY, y);
+        memory.setInt(offset + MouseFlags, flags);
+    }
+
+    /**
+     * Clear the whole record and write the input type.
+     * 
+     * @param memory
+     * @param offset
+     * @param type The input type.
+     */
+    private static void clear(Pointer memory, long offset, int type) {
+        memory.setMemory(offset, Size, (byte) 0);
+        memory.setInt(offset, type);
+    }
+
+    /**
+     * Submit the native INPUT records with a single SendInput call.
+     * 
+     * @param memory The native INPUT array.
+     * @param count The number of records.
+     */
+    static void send(Pointer memory, int count) {
+        User.SendInput(count, memory, Size);
+    }
+
+    /**
+     * The direct mapping of USER32.DLL, the call needs no argument marshalling.
+     */
+    private static final class User {
+
+        static {
+            Native.register("user32");
+        }
+
+        /**
+         * Synthesizes keystrokes, mouse motions, and button clicks.
+         * 
+         * @param nInputs The number of structures in the array.
+         * @param pInputs The array of INPUT structures.
+         * @param cbSize The size, in bytes, of an INPUT structure.
+         * @return The number of events that it successfully inserted into the input stream.
+         */
+        private static native int SendInput(int nInputs, Pointer pInputs, int cbSize);
+    }
+}
\ No newline at end of file
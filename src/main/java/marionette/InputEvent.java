@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+/**
+ * Immutable {@link KeyEvent} which is created by the dispatcher.
+ */
+class InputEvent implements KeyEvent {
+
+    /** The event sequence number. */
+    private final long sequence;
+
+    /** The mouse location. */
+    private final int x;
+
+    /** The mouse location. */
+    private final int y;
+
+    /** The event time. */
+    private final long time;
+
+    /** The mouse wheel delta. */
+    private final double delta;
+
+    /** The number of merged samples. */
+    private final int skipped;
+
+    /**
+     * @param sequence The event sequence number.
+     * @param x The mouse location.
+     * @param y The mouse location.
+     * @param time The event time.
+     * @param delta The mouse wheel delta.
+     * @param skipped The number of merged samples.
+     */
+    InputEvent(long sequence, int x, int y, long time, double delta, int skipped) {
+        this.sequence = sequence;
+        this.x = x;
+        this.y = y;
+        this.time = time;
+        this.delta = delta;
+        this.skipped = skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int x() {
+        return x;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int y() {
+        return y;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long time() {
+        return time;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double delta() {
+        return delta;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int skipped() {
+        return skipped;
+    }
+
+    /**
+     * Create the event which merges the specified number of preceding samples.
+     * 
+     * @param skipped The number of merged samples.
+     * @return
+     */
+    InputEvent merge(int skipped) {
+        return skipped == 0 ? this : new InputEvent(sequence, x, y, time, delta, skipped);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "InputEvent [sequence=" + sequence + ", x=" + x + ", y=" + y + ", time=" + time + ", delta=" + delta + ", skipped=" + skipped + "]";
+    }
+}
\ No newline at end of file
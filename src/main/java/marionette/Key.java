@@ -9,10 +9,10 @@
  */
 package marionette;
 
+import java.util.Set;
 import java.util.function.Predicate;
 
 import com.sun.jna.Native;
-import com.sun.jna.platform.win32.User32;
 import com.sun.jna.win32.StdCallLibrary;
 import com.sun.jna.win32.W32APIOptions;
 
@@ -353,7 +353,7 @@ public enum Key {
      */
     private Key(int virtualCode, int on, int off, boolean extended) {
         this.virtualCode = virtualCode;
-        this.scanCode = WindowsKeyCodeHelper.INSTANCE.MapVirtualKey(virtualCode, 0);
+        this.scanCode = scan(virtualCode);
         this.on = on;
         this.off = off;
         this.mouse = on != 0 && off != 0;
@@ -366,18 +366,28 @@ public enum Key {
      * @return
      */
     public Predicate<Key> matcher() {
+        return KeySet.of(this);
+    }
+
+    /**
+     * List up the actual keys which the hook reports for this key. The generic modifier keys
+     * (Shift, Control and Alt) stand for both of their left and right variants.
+     * 
+     * @return
+     */
+    Key[] variants() {
         switch (this) {
         case Shift:
-            return e -> e == ShiftLeft || e == ShiftRight;
+            return new Key[] {ShiftLeft, ShiftRight};
 
         case Control:
-            return e -> e == ControlLeft || e == ControlRight;
+            return new Key[] {ControlLeft, ControlRight};
 
         case Alt:
-            return e -> e == AltLeft || e == AltRight;
+            return new Key[] {AltLeft, AltRight};
 
         default:
-            return e -> e == this;
+            return new Key[] {this};
         }
     }
 
@@ -387,7 +397,31 @@ public enum Key {
      * @return A result.
      */
     public boolean isPressed() {
-        return (User32.INSTANCE.GetAsyncKeyState(virtualCode) & 0x8000) != 0;
+        return KeyState.isPressed(this);
+    }
+
+    /**
+     * Take the snapshot of the whole keyboard and mouse button state.
+     * 
+     * @return The immutable set of all pressed keys.
+     */
+    public static Set<Key> pressedKeys() {
+        return KeyState.snapshot();
+    }
+
+    /**
+     * Translate the virtual key code into the scan code.
+     * 
+     * @param virtualCode The virtual key code.
+     * @return The scan code, or zero on the platform without USER32.DLL (e.g. the build server).
+     */
+    private static int scan(int virtualCode) {
+        try {
+            return WindowsKeyCodeHelper.INSTANCE.MapVirtualKey(virtualCode, 0);
+        } catch (LinkageError e) {
+            // the native library is unavailable, any other failure must surface
+            return 0;
+        }
     }
 
     /**
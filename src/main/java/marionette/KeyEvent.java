@@ -9,6 +9,8 @@
  */
 package marionette;
 
+import com.sun.jna.platform.win32.Kernel32;
+
 import marionette.platform.Location;
 
 /**
@@ -38,6 +40,11 @@ public interface KeyEvent {
      * <p>
      * Compute the time when event was occured.
      * </p>
+     * <p>
+     * The time is the system tick count in milliseconds (the clock of GetTickCount), which the
+     * native hook reports for both keyboard and mouse events, so the time stamps of the merged
+     * event stream are comparable. It is not the epoch time and wraps around every 49.7 days.
+     * </p>
      * 
      * @return
      */
@@ -50,6 +57,26 @@ public interface KeyEvent {
      */
     double delta();
 
+    /**
+     * Retrieve the sequence number of the native event. It increases monotonically in the order
+     * of occurrence, so the events of the different keys and devices can be ordered.
+     * 
+     * @return
+     */
+    default long sequence() {
+        return 0;
+    }
+
+    /**
+     * Retrieve the number of the preceding samples which were merged into this event. The mouse
+     * move events are coalesced by default, so the subscriber receives only the latest location.
+     * 
+     * @return
+     */
+    default int skipped() {
+        return 0;
+    }
+
     default Location location() {
         return Location.of(x(), y());
     }
@@ -59,41 +86,20 @@ public interface KeyEvent {
      * @return
      */
     static KeyEvent of(Key key) {
-        long time = System.currentTimeMillis();
-
-        return new KeyEvent() {
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public int y() {
-                return 0;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public int x() {
-                return 0;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public long time() {
-                return time;
-            }
+        return of(0, 0, 0, Integer.toUnsignedLong(Kernel32.INSTANCE.GetTickCount()), 0);
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public double delta() {
-                return 0;
-            }
-        };
+    /**
+     * Create the event.
+     * 
+     * @param sequence The event sequence number.
+     * @param x The mouse location.
+     * @param y The mouse location.
+     * @param time The event time.
+     * @param delta The mouse wheel delta.
+     * @return
+     */
+    static KeyEvent of(long sequence, int x, int y, long time, double delta) {
+        return new InputEvent(sequence, x, y, time, delta, 0);
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Immutable compact set of {@link Key}, four words of bits indexed by {@link Key#ordinal()}. The
+ * ordinal distinguishes the extended keys (e.g. {@link Key#Return} and {@link Key#ReturnMin})
+ * which share the same virtual code, so no separate extended flag is needed. The generic modifier
+ * keys are expanded to their left and right variants when the set is built, so the matching is a
+ * single bit test.
+ */
+final class KeySet implements Predicate<Key> {
+
+    /** The empty set. */
+    static final KeySet EMPTY = new KeySet(new long[4]);
+
+    /** The key list. */
+    private static final Key[] KEYS = Key.values();
+
+    /** The all mouse buttons. */
+    static final KeySet MOUSE = of(Stream.of(KEYS).filter(key -> key.mouse).toArray(Key[]::new));
+
+    /** The all keyboard keys. */
+    static final KeySet KEYBOARD = of(Stream.of(KEYS).filter(key -> !key.mouse).toArray(Key[]::new));
+
+    /** The bits. */
+    private final long[] words;
+
+    /**
+     * @param words
+     */
+    private KeySet(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Test whether this set contains the key of the specified ordinal or not.
+     * 
+     * @param ordinal The key ordinal.
+     * @return A result.
+     */
+    boolean contains(int ordinal) {
+        return (words[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean test(Key key) {
+        return key != null && contains(key.ordinal());
+    }
+
+    /**
+     * Test whether this set shares any key with the specified bitmap or not.
+     * 
+     * @param bitmap The bitmap indexed by {@link Key#ordinal()}.
+     * @return A result.
+     */
+    boolean intersects(AtomicLongArray bitmap) {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != 0 && (bitmap.get(i) & words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test whether this set shares any key with the specified set or not.
+     * 
+     * @param other
+     * @return A result.
+     */
+    boolean intersects(KeySet other) {
+        for (int i = 0; i < words.length; i++) {
+            if ((other.words[i] & words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the union of this set and the specified set.
+     * 
+     * @param other
+     * @return
+     */
+    KeySet union(KeySet other) {
+        long[] union = new long[words.length];
+        for (int i = 0; i < union.length; i++) {
+            union[i] = words[i] | other.words[i];
+        }
+        return new KeySet(union);
+    }
+
+    /**
+     * List up all keys in this set.
+     * 
+     * @return
+     */
+    Set<Key> keys() {
+        EnumSet<Key> keys = EnumSet.noneOf(Key.class);
+        for (Key key : KEYS) {
+            if (contains(key.ordinal())) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return keys().toString();
+    }
+
+    /**
+     * Build the set of the specified keys, the generic modifier keys are expanded to their variants.
+     * 
+     * @param keys
+     * @return
+     */
+    static KeySet of(Key... keys) {
+        long[] words = new long[4];
+        for (Key key : keys) {
+            for (Key variant : key.variants()) {
+                words[variant.ordinal() >>> 6] |= 1L << variant.ordinal();
+            }
+        }
+        return new KeySet(words);
+    }
+}
\ No newline at end of file
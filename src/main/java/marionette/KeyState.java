@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+import com.sun.jna.platform.win32.User32;
+
+import kiss.Signal;
+import kiss.Signaling;
+import kiss.Variable;
+
+/**
+ * The pressed state table of all keys which is maintained by the native hooks. The hook thread is
+ * the only writer, the readers never touch the native memory while the hook is tracking the
+ * device.
+ */
+final class KeyState {
+
+    /** The key list. */
+    private static final Key[] KEYS = Key.values();
+
+    /** The pressed state bitmap, indexed by {@link Key#ordinal()}. */
+    private static final AtomicLongArray pressed = new AtomicLongArray(4);
+
+    /** The precomputed set of all variants of each key. */
+    private static final KeySet[] masks = new KeySet[KEYS.length];
+
+    /** The empty watchers. */
+    private static final Watcher[] EMPTY = new Watcher[0];
+
+    /** The state watchers, indexed by {@link Key#ordinal()}. */
+    private static final AtomicReferenceArray<Watcher[]> watchers = new AtomicReferenceArray(KEYS.length);
+
+    /** The keyboard hook is maintaining the table or not. */
+    private static volatile boolean keyboard;
+
+    /** The mouse hook is maintaining the table or not. */
+    private static volatile boolean mouse;
+
+    static {
+        for (Key key : KEYS) {
+            masks[key.ordinal()] = KeySet.of(key);
+            watchers.set(key.ordinal(), EMPTY);
+        }
+    }
+
+    /**
+     * Hide constructor.
+     */
+    private KeyState() {
+    }
+
+    /**
+     * Start or stop tracking of the specified device. The table is seeded from the native state at
+     * the start, so the keys which are already held are not lost. The generic modifier keys are
+     * never reported by the hook, so they are derived from their variants instead of being seeded.
+     * 
+     * @param mouseDevice The target device.
+     * @param tracking The tracking state.
+     */
+    static void track(boolean mouseDevice, boolean tracking) {
+        if (tracking) {
+            for (Key key : KEYS) {
+                if (key.mouse == mouseDevice && key.variants()[0] == key) {
+                    update(key, (User32.INSTANCE.GetAsyncKeyState(key.virtualCode) & 0x8000) != 0);
+                }
+            }
+        }
+
+        if (mouseDevice) {
+            mouse = tracking;
+        } else {
+            keyboard = tracking;
+        }
+    }
+
+    /**
+     * Update the key state. This method must be called from the hook thread.
+     * 
+     * @param key The target key.
+     * @param press The new state.
+     * @return Whether the state was changed or not.
+     */
+    static boolean update(Key key, boolean press) {
+        int ordinal = key.ordinal();
+        long bit = 1L << ordinal;
+        long previous = press ? pressed.getAndAccumulate(ordinal >> 6, bit, (a, b) -> a | b)
+                : pressed.getAndAccumulate(ordinal >> 6, ~bit, (a, b) -> a & b);
+
+        return ((previous & bit) != 0) != press;
+    }
+
+    /**
+     * Check the key state. The generic modifier keys are pressed when one of their variants is
+     * pressed.
+     * 
+     * @param key The target key.
+     * @return A result.
+     */
+    static boolean isPressed(Key key) {
+        if (key.mouse ? mouse : keyboard) {
+            return masks[key.ordinal()].intersects(pressed);
+        } else {
+            return (User32.INSTANCE.GetAsyncKeyState(key.virtualCode) & 0x8000) != 0;
+        }
+    }
+
+    /**
+     * Take the snapshot of the whole key state.
+     * 
+     * @return The immutable set of all pressed keys.
+     */
+    static Set<Key> snapshot() {
+        EnumSet<Key> keys = EnumSet.noneOf(Key.class);
+        for (Key key : KEYS) {
+            if (isPressed(key)) {
+                keys.add(key);
+            }
+        }
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Observe the state transition of the specified key. The identical observation is shared, so
+     * the signal fans out to all subscribers.
+     * 
+     * @param key The target key.
+     * @param enable The activation state of the observer.
+     * @param registration The owner of observation.
+     * @return The state signal.
+     */
+    static Signal<Boolean> watch(Key key, Variable<Boolean> enable, Registration registration) {
+        return registration.intern(enable, Arrays.asList(Watcher.class, key), () -> {
+            Watcher watcher = new Watcher(enable);
+            KeySet keys = KeySet.of(key);
+
+            update(watcher, keys, true);
+            registration.add(() -> update(watcher, keys, false));
+            registration.add(GlobalEvents.require(keys.intersects(KeySet.KEYBOARD), keys.intersects(KeySet.MOUSE), enable));
+
+            return watcher.signaling.expose;
+        });
+    }
+
+    /**
+     * Add or remove the state watcher.
+     * 
+     * @param watcher The target watcher.
+     * @param keys The observed keys.
+     * @param add Add or remove.
+     */
+    private static synchronized void update(Watcher watcher, KeySet keys, boolean add) {
+
+        for (Key variant : keys.keys()) {
+            Watcher[] current = watchers.get(variant.ordinal());
+            Watcher[] next;
+
+            if (add) {
+                next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = watcher;
+            } else {
+                next = Stream.of(current).filter(item -> item != watcher).toArray(Watcher[]::new);
+            }
+            watchers.set(variant.ordinal(), next);
+        }
+        MacroDefinition.relisten();
+    }
+
+    /**
+     * Compute the union of all keys which are observed by any state watcher.
+     * 
+     * @return The union of keys.
+     */
+    static KeySet watched() {
+        Key[] keys = Stream.of(KEYS).filter(key -> watchers.get(key.ordinal()).length != 0).toArray(Key[]::new);
+        return keys.length == 0 ? KeySet.EMPTY : KeySet.of(keys);
+    }
+
+    /**
+     * Retrieve the state watchers of the specified key.
+     * 
+     * @param index The key index.
+     * @return
+     */
+    static Watcher[] watchers(int index) {
+        return watchers.get(index);
+    }
+
+    /**
+     * The state observer.
+     */
+    static final class Watcher {
+
+        /** The activation state. */
+        final Variable<Boolean> enable;
+
+        /** The delivery lane to keep the order of transitions. */
+        final Lane lane = new Lane();
+
+        /** The state listeners. */
+        final Signaling<Boolean> signaling = new Signaling();
+
+        /**
+         * @param enable
+         */
+        private Watcher(Variable<Boolean> enable) {
+            this.enable = enable;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Actor-style mailbox which delivers the posted tasks one by one in FIFO order. The lane occupies
+ * a pool thread only while it has pending tasks, so the different lanes still run in parallel
+ * without any global lock. The concurrency policy decides what happens to the task which is
+ * posted while the lane is still running.
+ */
+class Lane implements Runnable {
+
+    /** The default maximum number of pending tasks for {@link MacroOption#Queue}. */
+    static final int QueueBound = 16;
+
+    /** The concurrency policy. */
+    private final MacroOption policy;
+
+    /** The maximum number of pending tasks. */
+    private final int bound;
+
+    /** The pending tasks for {@link MacroOption#Queue}. */
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue();
+
+    /** The number of pending tasks in mailbox. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The single pending task for {@link MacroOption#Drop} and {@link MacroOption#Latest}. */
+    private final AtomicReference<Runnable> slot = new AtomicReference();
+
+    /** The drain state. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param options The macro options which may contain the concurrency policy.
+     */
+    Lane(MacroOption... options) {
+        this(QueueBound, options);
+    }
+
+    /**
+     * @param bound The maximum number of pending tasks for {@link MacroOption#Queue}.
+     * @param options The macro options which may contain the concurrency policy.
+     */
+    Lane(int bound, MacroOption... options) {
+        this.bound = bound;
+
+        MacroOption policy = MacroOption.Queue;
+        for (MacroOption option : options) {
+            switch (option) {
+            case Drop:
+            case Latest:
+            case Queue:
+            case Parallel:
+                policy = option;
+                break;
+
+            default:
+                break;
+            }
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Post the task to this lane.
+     * 
+     * @param task The task to execute.
+     * @param executor The executor to drain this lane when it is idle.
+     * @return Whether the task was accepted or discarded by the concurrency policy.
+     */
+    boolean post(Runnable task, Executor executor) {
+        switch (policy) {
+        case Parallel:
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                // the saturated executor loses this task only
+                return false;
+            }
+
+        case Drop:
+            if (scheduled.compareAndSet(false, true)) {
+                slot.set(task);
+                return schedule(executor);
+            }
+            return false;
+
+        case Latest:
+            slot.set(task);
+            break;
+
+        default:
+            if (bound <= size.get()) {
+                return false;
+            }
+            size.incrementAndGet();
+            mailbox.offer(task);
+            break;
+        }
+
+        if (scheduled.compareAndSet(false, true)) {
+            return schedule(executor);
+        }
+        return true;
+    }
+
+    /**
+     * Start draining this lane. When the executor is saturated, the lane returns to the idle state
+     * so that the next post can schedule it again, the pending task of {@link MacroOption#Drop} and
+     * {@link MacroOption#Latest} is discarded and the mailbox of {@link MacroOption#Queue} is kept.
+     * 
+     * @param executor The executor to drain this lane.
+     * @return Whether the pending task is still kept or not.
+     */
+    private boolean schedule(Executor executor) {
+        try {
+            executor.execute(this);
+            return true;
+        } catch (RejectedExecutionException e) {
+            slot.set(null);
+            scheduled.set(false);
+            return policy == MacroOption.Queue;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        do {
+            Runnable task;
+            while ((task = next()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    // the lane must survive the broken task
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+            scheduled.set(false);
+
+            // the task posted between the last poll and the state reset must be drained here
+        } while (hasNext() && scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Retrieve the next pending task.
+     * 
+     * @return
+     */
+    private Runnable next() {
+        if (policy != MacroOption.Queue) {
+            return slot.getAndSet(null);
+        }
+
+        Runnable task = mailbox.poll();
+        if (task != null) {
+            size.decrementAndGet();
+        }
+        return task;
+    }
+
+    /**
+     * Test whether this lane has pending task or not.
+     * 
+     * @return
+     */
+    private boolean hasNext() {
+        return policy == MacroOption.Queue ? !mailbox.isEmpty() : slot.get() != null;
+    }
+}
\ No newline at end of file
@@ -9,23 +9,22 @@
  */
 package marionette;
 
-import static com.sun.jna.platform.win32.WinUser.KEYBDINPUT.*;
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import com.sun.jna.platform.win32.User32;
-import com.sun.jna.platform.win32.WinDef.DWORD;
-import com.sun.jna.platform.win32.WinDef.LONG;
-import com.sun.jna.platform.win32.WinDef.WORD;
-import com.sun.jna.platform.win32.WinUser.INPUT;
 
+import kiss.Disposable;
 import kiss.Extensible;
-import kiss.I;
 import kiss.Signal;
 import kiss.Variable;
 import kiss.Ⅱ;
 import marionette.platform.Location;
+import marionette.platform.Native;
 
 public abstract class Macro<Self extends Macro> implements Extensible {
 
@@ -33,17 +32,23 @@ public abstract class Macro<Self extends Macro> implements Extensible {
         GlobalEvents.initializeNativeHook();
     }
 
-    /** The display scale. */
-    private static final long ScaleX = 65536 / User32.INSTANCE.GetSystemMetrics(User32.SM_CXSCREEN);
+    /** The display width. */
+    private static final long ScreenWidth = User32.INSTANCE.GetSystemMetrics(User32.SM_CXSCREEN);
 
-    /** The display scale. */
-    private static final long ScaleY = 65536 / User32.INSTANCE.GetSystemMetrics(User32.SM_CYSCREEN);
+    /** The display height. */
+    private static final long ScreenHeight = User32.INSTANCE.GetSystemMetrics(User32.SM_CYSCREEN);
 
     /** The activation state. */
     public Variable<Boolean> enable = Variable.of(false);
 
     /** The window condition. */
-    Predicate<Window> windowCondition = I::accept;
+    Predicate<Window> windowCondition = WindowCondition.Any;
+
+    /** The interned window conditions. */
+    private final Map<List, Predicate<Window>> conditions = new HashMap();
+
+    /** The handle of all declared definitions. */
+    private Registration registration = new Registration();
 
     /**
      * 
@@ -65,6 +70,33 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      */
     public abstract void declare();
 
+    /**
+     * Declare all macros in one registration transaction, the new definitions are published to the
+     * dispatch path at once. The previous declaration is disposed.
+     * 
+     * @return The handle to dispose all declared definitions.
+     */
+    public final synchronized Disposable install() {
+        registration.dispose();
+        registration = new Registration();
+        conditions.clear();
+
+        registration.begin();
+        try {
+            declare();
+        } finally {
+            registration.commit();
+        }
+        return registration;
+    }
+
+    /**
+     * Dispose all declared definitions.
+     */
+    public final synchronized void dispose() {
+        registration.dispose();
+    }
+
     /**
      * Declare modifier key.
      * 
@@ -72,7 +104,7 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Signal<Boolean> with(Key key) {
-        return whenPress(key).mapTo(true).merge(whenRelease(key).mapTo(false));
+        return KeyState.watch(key, enable, registration);
     }
 
     /**
@@ -84,7 +116,7 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Signal<KeyEvent> whenPress(Key key, MacroOption... options) {
-        return new MacroDefinition(key, true, windowCondition, enable, Set.of(options)).events.expose;
+        return listen(key, true, null, options);
     }
 
     /**
@@ -96,7 +128,7 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Signal<KeyEvent> whenRelease(Key key, MacroOption... options) {
-        return new MacroDefinition(key, false, windowCondition, enable, Set.of(options)).events.expose;
+        return listen(key, false, null, options);
     }
 
     /**
@@ -111,9 +143,11 @@ public abstract class Macro<Self extends Macro> implements Extensible {
         int[] last = new int[2];
         StringBuilder directions = new StringBuilder();
 
-        Signal<KeyEvent> start = whenPress(key, options);
-        Signal<KeyEvent> capture = when(Mouse.Move).skipUntil(start);
-        Signal<KeyEvent> stop = whenRelease(key, options).skipUntil(start);
+        // share the lane to keep the order of press, move and release
+        Lane lane = MacroDefinition.group(key, windowCondition, enable, Set.of(options), registration);
+        Signal<KeyEvent> start = listen(key, true, lane, options);
+        Signal<KeyEvent> capture = listen(Mouse.Move, lane, MacroOption.FullFidelity).skipUntil(start);
+        Signal<KeyEvent> stop = listen(key, false, lane, options).skipUntil(start);
 
         return capture.effectOnce(e -> {
             // save start position
@@ -165,7 +199,45 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Signal<KeyEvent> when(Mouse mouse, MacroOption... options) {
-        return new MacroDefinition(mouse, windowCondition, enable, Set.of(options)).events.expose;
+        return listen(mouse, null, options);
+    }
+
+    /**
+     * Declare key related event which is delivered through the specified lane.
+     * 
+     * @param key
+     * @param press
+     * @param lane The shared lane, null for the private lane.
+     * @param options
+     * @return
+     */
+    private Signal<KeyEvent> listen(Key key, boolean press, Lane lane, MacroOption... options) {
+        return MacroDefinition.of(key, press, windowCondition, enable, lane, Set.of(options), registration).events;
+    }
+
+    /**
+     * Declare mouse related event which is delivered through the specified lane.
+     * 
+     * @param mouse
+     * @param lane The shared lane, null for the private lane.
+     * @param options
+     * @return
+     */
+    private Signal<KeyEvent> listen(Mouse mouse, Lane lane, MacroOption... options) {
+        return MacroDefinition.of(mouse, windowCondition, enable, lane, Set.of(options), registration).events;
+    }
+
+    /**
+     * Declare the key remapping. The source key is replaced by the specified keys (the chord is
+     * pressed in order and released in reverse order) while this macro is enabled and the window
+     * condition is satisfied. The remapping is evaluated inside the native hook, so it needs no
+     * thread hop at all.
+     * 
+     * @param from The source key.
+     * @param to The replacement keys.
+     */
+    protected final void remap(Key from, Key... to) {
+        registration.add(new Remap(from, to, windowCondition, enable));
     }
 
     /**
@@ -201,8 +273,13 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Self input(Key... keys) {
-        for (Key key : keys) {
-            emulate(key, true, true);
+        InputBatch batch = InputBatch.open();
+        try {
+            for (Key key : keys) {
+                emulate(key, true, true);
+            }
+        } finally {
+            batch.close();
         }
         return (Self) this;
     }
@@ -243,12 +320,26 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Self input(Key[] keys, Runnable subsequence) {
-        for (Key key : keys) {
-            press(key);
+        InputBatch batch = InputBatch.open();
+        try {
+            for (Key key : keys) {
+                press(key);
+            }
+        } finally {
+            batch.close();
         }
+
+        // the subsequence must observe the pressed keys even if it is nested in the outer scope
+        InputBatch.flushCurrent();
         subsequence.run();
-        for (Key key : keys) {
-            release(key);
+
+        batch = InputBatch.open();
+        try {
+            for (Key key : keys) {
+                release(key);
+            }
+        } finally {
+            batch.close();
         }
         return (Self) this;
     }
@@ -262,12 +353,17 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     protected final Self inputParallel(Key... keys) {
-        for (int i = 0; i < keys.length; i++) {
-            emulate(keys[i], true, false);
-        }
+        InputBatch batch = InputBatch.open();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                emulate(keys[i], true, false);
+            }
 
-        for (int i = keys.length - 1; 0 <= i; i--) {
-            emulate(keys[i], false, true);
+            for (int i = keys.length - 1; 0 <= i; i--) {
+                emulate(keys[i], false, true);
+            }
+        } finally {
+            batch.close();
         }
         return (Self) this;
     }
@@ -294,65 +390,214 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @return
      */
     private final Self emulate(Key key, boolean press, boolean release) {
-        if (key.mouse) {
-            INPUT ip = new INPUT();
-            ip.type = new DWORD(INPUT.INPUT_MOUSE);
-            ip.input.setType("mi");
-
+        InputBatch batch = InputBatch.open();
+        try {
             if (press) {
-                ip.input.mi.dwFlags = new DWORD(key.on | 0x8000); // MOUSEEVENTF_ABSOLUTE
-                User32.INSTANCE.SendInput(new DWORD(1), new INPUT[] {ip}, ip.size());
+                batch.key(key, true);
             }
 
             if (release) {
-                ip.input.mi.dwFlags = new DWORD(key.off | 0x8000); // MOUSEEVENTF_ABSOLUTE
-                User32.INSTANCE.SendInput(new DWORD(1), new INPUT[] {ip}, ip.size());
+                batch.key(key, false);
             }
-        } else {
-            INPUT ip = new INPUT();
-            ip.type = new DWORD(INPUT.INPUT_KEYBOARD);
-            ip.input.setType("ki");
-            ip.input.ki.wVk = new WORD(key.virtualCode);
-            ip.input.ki.wScan = new WORD(key.scanCode);
+        } finally {
+            batch.close();
+        }
+        return (Self) this;
+    }
 
-            if (press) {
-                ip.input.ki.dwFlags = new DWORD(KEYEVENTF_SCANCODE | (key.extend ? KEYEVENTF_EXTENDEDKEY : 0));
-                User32.INSTANCE.SendInput(new DWORD(1), new INPUT[] {ip}, ip.size());
-            }
+    protected final Self mouseMoveTo(int x, int y) {
+        InputBatch batch = InputBatch.open();
+        try {
+            batch.move(normalizeX(x), normalizeY(y));
+        } finally {
+            batch.close();
+        }
+        return (Self) this;
+    }
 
-            if (release) {
-                ip.input.ki.dwFlags = new DWORD(KEYEVENTF_KEYUP | KEYEVENTF_SCANCODE | (key.extend ? KEYEVENTF_EXTENDEDKEY : 0));
-                User32.INSTANCE.SendInput(new DWORD(1), new INPUT[] {ip}, ip.size());
+    /**
+     * Click the left button at the location relative to the active window. The move and the click
+     * are submitted with a single injection, so the target never observes the intermediate state.
+     * 
+     * @param x The window relative location.
+     * @param y The window relative location.
+     * @return
+     */
+    protected final Self clickAt(int x, int y) {
+        return clickAt(window().locate(x, y));
+    }
+
+    /**
+     * Click the left button at the specified location. The move and the click are submitted with a
+     * single injection, so the target never observes the intermediate state.
+     * 
+     * @param location The target location.
+     * @return
+     */
+    protected final Self clickAt(Location location) {
+        return click(location, null);
+    }
+
+    /**
+     * Click the left button at the location relative to the active window, and then return the
+     * cursor to the original position. The whole sequence is submitted with a single injection.
+     * 
+     * @param x The window relative location.
+     * @param y The window relative location.
+     * @return
+     */
+    protected final Self clickAtAndReturn(int x, int y) {
+        return clickAtAndReturn(window().locate(x, y));
+    }
+
+    /**
+     * Click the left button at the specified location, and then return the cursor to the original
+     * position. The whole sequence is submitted with a single injection.
+     * 
+     * @param location The target location.
+     * @return
+     */
+    protected final Self clickAtAndReturn(Location location) {
+        return click(location, Native.API.getCursorPosition());
+    }
+
+    /**
+     * Drag with the left button from the current cursor position to the location relative to the
+     * active window.
+     * 
+     * @param x The window relative location.
+     * @param y The window relative location.
+     * @return
+     */
+    protected final Self dragTo(int x, int y) {
+        return dragTo(x, y, 8);
+    }
+
+    /**
+     * Drag with the left button from the current cursor position to the location relative to the
+     * active window.
+     * 
+     * @param x The window relative location.
+     * @param y The window relative location.
+     * @param points The number of interpolated points between the current and the target location.
+     * @return
+     */
+    protected final Self dragTo(int x, int y, int points) {
+        return dragTo(window().locate(x, y), points);
+    }
+
+    /**
+     * Drag with the left button from the current cursor position to the specified location. The
+     * press, the interpolated moves and the release are submitted with a single injection (up to 60
+     * interpolated points).
+     * 
+     * @param location The target location.
+     * @param points The number of interpolated points between the current and the target location.
+     * @return
+     */
+    protected final Self dragTo(Location location, int points) {
+        Location from = Native.API.getCursorPosition();
+        int startX = from.X();
+        int startY = from.Y();
+        int endX = location.X();
+        int endY = location.Y();
+        int steps = Math.max(0, points) + 1;
+
+        InputBatch batch = InputBatch.open();
+        try {
+            batch.move(normalizeX(startX), normalizeY(startY));
+            batch.key(Key.MouseLeft, true);
+            for (int i = 1; i <= steps; i++) {
+                batch.move(normalizeX(startX + (endX - startX) * i / steps), normalizeY(startY + (endY - startY) * i / steps));
             }
+            batch.key(Key.MouseLeft, false);
+        } finally {
+            batch.close();
         }
         return (Self) this;
     }
 
-    protected final Self mouseMoveTo(int x, int y) {
-        INPUT ip = new INPUT();
-        ip.type = new DWORD(INPUT.INPUT_MOUSE);
-        ip.input.setType("mi");
-        ip.input.mi.dx = new LONG(x * ScaleX);
-        ip.input.mi.dy = new LONG(y * ScaleY);
-        ip.input.mi.dwFlags = new DWORD(0x0001 | 0x8000); // MOUSEEVENTF_MOVE | MOUSEEVENTF_ABSOLUTE
-        User32.INSTANCE.SendInput(new DWORD(1), new INPUT[] {ip}, ip.size());
+    /**
+     * Convert the screen location to the normalized absolute coordinate (0 - 65535) of SendInput.
+     * The value is rounded up, so the system maps it back to the exact pixel.
+     * 
+     * @param x The screen location.
+     * @return The normalized coordinate.
+     */
+    static int normalizeX(int x) {
+        return (int) ((x * 65536L + ScreenWidth - 1) / ScreenWidth);
+    }
+
+    /**
+     * Convert the screen location to the normalized absolute coordinate (0 - 65535) of SendInput.
+     * The value is rounded up, so the system maps it back to the exact pixel.
+     * 
+     * @param y The screen location.
+     * @return The normalized coordinate.
+     */
+    static int normalizeY(int y) {
+        return (int) ((y * 65536L + ScreenHeight - 1) / ScreenHeight);
+    }
+
+    /**
+     * Emulate the click sequence in a single injection.
+     * 
+     * @param location The target location.
+     * @param back The location to return the cursor, null to stay.
+     * @return
+     */
+    private Self click(Location location, Location back) {
+        InputBatch batch = InputBatch.open();
+        try {
+            batch.move(normalizeX(location.X()), normalizeY(location.Y()));
+            batch.key(Key.MouseLeft, true);
+            batch.key(Key.MouseLeft, false);
+
+            if (back != null) {
+                batch.move(normalizeX(back.X()), normalizeY(back.Y()));
+            }
+        } finally {
+            batch.close();
+        }
         return (Self) this;
     }
 
     /**
      * <p>
-     * Stop macro temporary.
+     * Stop macro temporary. The macro on virtual thread releases its carrier while waiting (see
+     * {@link MacroOption#VirtualThread}), and the accuracy is available from {@link DelayAccuracy}.
      * </p>
      * 
      * @param ms A time to stop.
      * @return
      */
     protected final Self delay(int ms) {
-        try {
-            Thread.sleep(ms);
-        } catch (InterruptedException e) {
-            throw I.quiet(e);
-        }
+        // the events before the delay must reach the system before waiting
+        InputBatch.flushCurrent();
+        MacroDefinition.waiting();
+
+        TimerWheel.sleep(TimeUnit.MILLISECONDS.toNanos(ms));
+        return (Self) this;
+    }
+
+    /**
+     * Start building the precompiled input sequence. The fixed script should be compiled once at
+     * declaration and replayed by {@link #play(Timeline)} on each trigger.
+     * 
+     * @return
+     */
+    protected final Timeline.Builder timeline() {
+        return new Timeline.Builder();
+    }
+
+    /**
+     * Replay the precompiled input sequence on the current thread.
+     * 
+     * @param timeline The sequence to replay.
+     * @return
+     */
+    protected final Self play(Timeline timeline) {
+        timeline.play();
         return (Self) this;
     }
 
@@ -364,19 +609,32 @@ public abstract class Macro<Self extends Macro> implements Extensible {
      * @param condition
      */
     protected final void require(Predicate<Window> condition, Runnable definitions) {
-        Predicate<Window> stored = windowCondition;
-
-        windowCondition = windowCondition.and(condition);
-        definitions.run();
-
-        windowCondition = stored;
+        require(condition, condition, definitions);
     }
 
     /**
      * Declare the condition of macro activation.
      */
     protected final void requireTitle(String title, Runnable definitions) {
-        require(window -> window.title().contains(title), definitions);
+        require(title, window -> window.title().contains(title), definitions);
+    }
+
+    /**
+     * Declare the condition of macro activation. The condition is interned by the specified
+     * identity, so the definitions in the identical scope share the same window condition and are
+     * deduplicated.
+     * 
+     * @param identity The identity of condition.
+     * @param condition The condition.
+     * @param definitions
+     */
+    private void require(Object identity, Predicate<Window> condition, Runnable definitions) {
+        Predicate<Window> stored = windowCondition;
+
+        windowCondition = conditions.computeIfAbsent(List.of(stored, identity), key -> new WindowCondition(stored.and(condition)));
+        definitions.run();
+
+        windowCondition = stored;
     }
 
     protected final void debugByMouse() {
@@ -394,6 +652,17 @@ public abstract class Macro<Self extends Macro> implements Extensible {
         return name();
     }
 
+    /**
+     * Configure the time budget of the macro which runs with {@link MacroOption#Inline}. The macro
+     * which overruns it is moved to the pooled execution.
+     * 
+     * @param time The budget.
+     * @param unit The time unit.
+     */
+    public static void inlineBudget(long time, TimeUnit unit) {
+        MacroDefinition.inlineBudget = unit.toNanos(time);
+    }
+
     /**
      * Stop all macro.
      */
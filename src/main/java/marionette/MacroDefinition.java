@@ -9,96 +9,527 @@
  */
 package marionette;
 
+import static java.lang.Boolean.TRUE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
-import kiss.I;
-import kiss.Signaling;
+import kiss.Observer;
+import kiss.Signal;
 import kiss.Variable;
 
 class MacroDefinition {
 
-    /** The event listeners. */
-    static final List<MacroDefinition> presses = new CopyOnWriteArrayList();
+    /** The event type for key press. */
+    static final int Press = 0;
+
+    /** The event type for key release. */
+    static final int Release = 1;
+
+    /** The event type for mouse action. */
+    static final int Action = 2;
+
+    /**
+     * The event type for key autorepeat. It has no registered definition, the plan is derived from
+     * the {@link #Press} definitions which accept {@link MacroOption#Repeat}.
+     */
+    static final int Repeat = 3;
+
+    /** The empty bucket. */
+    private static final MacroDefinition[] EMPTY = new MacroDefinition[0];
+
+    /** The immutable snapshot of all published definitions, it is replaced with one atomic swap. */
+    static volatile Table table = new Table();
+
+    /** The time budget in nanoseconds of the inline execution. */
+    static volatile long inlineBudget = TimeUnit.MILLISECONDS.toNanos(1);
 
-    /** The event listeners. */
-    static final List<MacroDefinition> releases = new CopyOnWriteArrayList();
+    /** The definition which is running inline, accessed by the dispatcher thread only. */
+    private static MacroDefinition inlining;
 
-    /** The event listeners. */
-    static final List<MacroDefinition> mouseMove = new CopyOnWriteArrayList();
+    /** The thread which runs the inline definitions. */
+    private static volatile Thread inliner;
 
-    /** The event listeners. */
-    static final List<MacroDefinition> mouseWheel = new CopyOnWriteArrayList();
+    /** The event type. */
+    private final int type;
+
+    /** The bucket indexes of this definition. */
+    private final int[] indexes;
+
+    /** The acceptable keys. */
+    final KeySet keys;
 
     /** The window condition. */
     final Predicate<Window> windowConditon;
 
-    /** The acceptable event type. */
-    final Predicate condition;
-
     /** The event should be consumed or not. */
     final boolean consumable;
 
+    /** The macro should run on virtual thread or not. */
+    final boolean virtual;
+
+    /** The macro should receive the key autorepeat or not. */
+    private final boolean repeat;
+
+    /** The macro runs on the dispatcher thread or not, it is demoted when it overruns the budget. */
+    private volatile boolean inline;
+
+    /** The executor which runs the task on the current thread within the budget. */
+    private final Executor inlineExecutor = this::inline;
+
     /** The acrivation state. */
     final Variable<Boolean> enable;
 
-    final Signaling<KeyEvent> events = new Signaling();
+    /** The shared lane of the key gesture, null for the private lane of each subscriber. */
+    private final Lane group;
+
+    /** The macro options which configure the private lane. */
+    private final MacroOption[] options;
+
+    /** The definition coalesces the events or not. */
+    private final boolean coalesce;
+
+    /** The subscribers, each one has its own delivery lane. */
+    private volatile Subscriber[] subscribers = new Subscriber[0];
+
+    /**
+     * The event signal. The identical call sites share this definition, but each subscriber is
+     * delivered through its own lane, so the independent macros on the same trigger never wait for
+     * each other and the concurrency policy applies per subscriber.
+     */
+    final Signal<KeyEvent> events = new Signal<>((observer, disposer) -> {
+        Subscriber subscriber = new Subscriber(observer);
+        subscribe(subscriber, true);
+        return disposer.add(() -> subscribe(subscriber, false));
+    });
 
     /**
-     * Macro definition for key.
+     * Retrieve the definition for key. The identical definition is shared, so the dispatch cost
+     * and the memory scale with the distinct triggers rather than the call sites.
      * 
-     * @param key
-     * @param press
-     * @param windowConditon
-     * @param options
+     * @param key The trigger key.
+     * @param press The event type.
+     * @param windowConditon The window condition.
+     * @param enable The activation state.
+     * @param group The shared lane, null for the private lane.
+     * @param options The macro options.
+     * @param registration The owner of definition.
+     * @return The interned definition.
      */
-    MacroDefinition(Key key, boolean press, Predicate<Window> windowConditon, Variable<Boolean> enable, Set<MacroOption> options) {
-        this(key.matcher(), windowConditon, enable, options);
+    static MacroDefinition of(Key key, boolean press, Predicate<Window> windowConditon, Variable<Boolean> enable, Lane group, Set<MacroOption> options, Registration registration) {
+        int type = press ? Press : Release;
 
-        if (press) {
-            presses.add(this);
-        } else {
-            releases.add(this);
-        }
+        return registration.intern(enable, Arrays.asList(key, type, windowConditon, group, options), () -> {
+            KeySet keys = KeySet.of(key);
+            int[] indexes = keys.keys().stream().mapToInt(Key::ordinal).toArray();
+
+            MacroDefinition macro = new MacroDefinition(type, indexes, keys, windowConditon, enable, group, options, false);
+            registration.add(macro);
+            registration.add(GlobalEvents.require(keys.intersects(KeySet.KEYBOARD), keys.intersects(KeySet.MOUSE), enable));
+            return macro;
+        });
     }
 
     /**
-     * Macro definition for mouse.
+     * Retrieve the definition for mouse. The identical definition is shared, so the dispatch cost
+     * and the memory scale with the distinct triggers rather than the call sites.
      * 
-     * @param mouse
-     * @param windowConditon
-     * @param options
+     * @param mouse The trigger action.
+     * @param windowConditon The window condition.
+     * @param enable The activation state.
+     * @param group The shared lane, null for the private lane.
+     * @param options The macro options.
+     * @param registration The owner of definition.
+     * @return The interned definition.
      */
-    MacroDefinition(Mouse mouse, Predicate<Window> windowConditon, Variable<Boolean> enable, Set<MacroOption> options) {
-        this(I::accept, windowConditon, enable, options);
-
-        switch (mouse) {
-        case Move:
-            mouseMove.add(this);
-            break;
+    static MacroDefinition of(Mouse mouse, Predicate<Window> windowConditon, Variable<Boolean> enable, Lane group, Set<MacroOption> options, Registration registration) {
+        return registration.intern(enable, Arrays.asList(mouse, Action, windowConditon, group, options), () -> {
+            boolean coalesce = mouse == Mouse.Move && !options.contains(MacroOption.FullFidelity);
 
-        case Wheel:
-            mouseWheel.add(this);
-            break;
+            MacroDefinition macro = new MacroDefinition(Action, new int[] {mouse.ordinal()}, KeySet.EMPTY, windowConditon, enable, group, options, coalesce);
+            registration.add(macro);
+            registration.add(GlobalEvents.require(false, true, enable));
+            return macro;
+        });
+    }
 
-        default:
-            break;
-        }
+    /**
+     * Retrieve the lane which is shared by the definitions of the key gesture. The identical gesture
+     * declarations share the same lane, so their definitions are also shared.
+     * 
+     * @param key The trigger key.
+     * @param windowConditon The window condition.
+     * @param enable The activation state.
+     * @param options The macro options.
+     * @param registration The owner of definition.
+     * @return The shared lane.
+     */
+    static Lane group(Key key, Predicate<Window> windowConditon, Variable<Boolean> enable, Set<MacroOption> options, Registration registration) {
+        return registration.intern(enable, Arrays.asList(Lane.class, key, windowConditon, options), () -> new Lane(Integer.MAX_VALUE, options
+                .toArray(MacroOption[]::new)));
     }
 
     /**
      * Macro definition.
      * 
-     * @param condition
+     * @param type
+     * @param indexes
+     * @param keys
      * @param windowCondition
+     * @param enable
+     * @param group
      * @param options
+     * @param coalesce
      */
-    private MacroDefinition(Predicate condition, Predicate<Window> windowCondition, Variable<Boolean> enable, Set<MacroOption> options) {
-        this.condition = condition;
+    MacroDefinition(int type, int[] indexes, KeySet keys, Predicate<Window> windowCondition, Variable<Boolean> enable, Lane group, Set<MacroOption> options, boolean coalesce) {
+        this.type = type;
+        this.indexes = indexes;
+        this.keys = keys;
         this.windowConditon = windowCondition;
         this.enable = enable;
+        this.group = group;
+        this.options = options.toArray(MacroOption[]::new);
         this.consumable = options.contains(MacroOption.IgnoreEvent);
+        this.virtual = options.contains(MacroOption.VirtualThread);
+        this.repeat = options.contains(MacroOption.Repeat);
+        this.inline = options.contains(MacroOption.Inline);
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Add or remove the subscriber.
+     * 
+     * @param subscriber The target subscriber.
+     * @param add Add or remove.
+     */
+    private synchronized void subscribe(Subscriber subscriber, boolean add) {
+        Subscriber[] current = subscribers;
+
+        if (add) {
+            Subscriber[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscriber;
+            subscribers = next;
+        } else {
+            subscribers = Stream.of(current).filter(item -> item != subscriber).toArray(Subscriber[]::new);
+        }
+    }
+
+    /**
+     * Deliver the event to all subscribers through their lanes.
+     * 
+     * @param event The event to deliver.
+     * @param executor The executor to drain the lanes.
+     */
+    void post(InputEvent event, Executor executor) {
+        if (inline) {
+            executor = inlineExecutor;
+        }
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.post(event, executor);
+        }
+    }
+
+    /**
+     * Run the task on the current thread and demote this definition to the pooled execution when
+     * the task overruns the inline budget.
+     * 
+     * @param task
+     */
+    private void inline(Runnable task) {
+        long start = System.nanoTime();
+        inliner = Thread.currentThread();
+        inlining = this;
+        try {
+            task.run();
+        } finally {
+            inlining = null;
+
+            if (inlineBudget < System.nanoTime() - start) {
+                inline = false;
+            }
+        }
+    }
+
+    /**
+     * Notify that the macro on the current thread is going to wait. The inline definition is
+     * demoted before waiting, so the subsequent triggers never block the dispatcher again.
+     */
+    static void waiting() {
+        if (Thread.currentThread() == inliner) {
+            MacroDefinition macro = inlining;
+            if (macro != null) {
+                macro.inline = false;
+            }
+        }
+    }
+
+    /**
+     * Publish the new snapshot of definitions. Each affected bucket is rebuilt only once, so the
+     * cost is linear in the number of definitions however many are registered at once.
+     * 
+     * @param added The definitions to add.
+     * @param removed The definitions to remove.
+     */
+    static synchronized void publish(Collection<MacroDefinition> added, Collection<MacroDefinition> removed) {
+        Table current = table;
+        MacroDefinition[][][] registered = new MacroDefinition[current.registered.length][][];
+        MacroDefinition[][][] listeners = new MacroDefinition[current.listeners.length][][];
+        MacroDefinition[][][] consumables = new MacroDefinition[current.consumables.length][][];
+        List<MacroDefinition>[][] changes = new List[registered.length][];
+
+        Set<MacroDefinition> removing = Collections.newSetFromMap(new IdentityHashMap());
+        removing.addAll(removed);
+
+        for (int type = 0; type < registered.length; type++) {
+            registered[type] = current.registered[type].clone();
+            listeners[type] = current.listeners[type].clone();
+            consumables[type] = current.consumables[type].clone();
+            changes[type] = new List[registered[type].length];
+        }
+
+        for (MacroDefinition macro : removing) {
+            for (int index : macro.indexes) {
+                changes[macro.type][index] = new ArrayList();
+            }
+        }
+
+        for (MacroDefinition macro : added) {
+            for (int index : macro.indexes) {
+                if (changes[macro.type][index] == null) {
+                    changes[macro.type][index] = new ArrayList();
+                }
+                changes[macro.type][index].add(macro);
+            }
+        }
+
+        for (int type = 0; type < registered.length; type++) {
+            for (int index = 0; index < registered[type].length; index++) {
+                List<MacroDefinition> additions = changes[type][index];
+                if (additions != null) {
+                    List<MacroDefinition> bucket = new ArrayList();
+                    for (MacroDefinition macro : registered[type][index]) {
+                        if (!removing.contains(macro)) {
+                            bucket.add(macro);
+                        }
+                    }
+                    bucket.addAll(additions);
+
+                    registered[type][index] = bucket.toArray(EMPTY);
+                    compile(registered, listeners, consumables, type, index);
+                }
+            }
+        }
+        table = new Table(registered, listeners, consumables, listened(listeners));
+    }
+
+    /**
+     * Rebuild the dispatch plan from the current activation states. It is called whenever any
+     * activation state is changed, so the hot path never reads the disabled definitions.
+     */
+    static synchronized void recompile() {
+        Table current = table;
+        MacroDefinition[][][] listeners = new MacroDefinition[current.registered.length][][];
+        MacroDefinition[][][] consumables = new MacroDefinition[current.registered.length][][];
+
+        for (int type = 0; type < listeners.length; type++) {
+            listeners[type] = new MacroDefinition[current.registered[type].length][];
+            consumables[type] = new MacroDefinition[current.registered[type].length][];
+        }
+
+        for (int type = 0; type < Repeat; type++) {
+            for (int index = 0; index < listeners[type].length; index++) {
+                compile(current.registered, listeners, consumables, type, index);
+            }
+        }
+        table = new Table(current.registered, listeners, consumables, listened(listeners));
+    }
+
+    /**
+     * Recompute the union of listened keys, the state watchers are also taken into account.
+     */
+    static synchronized void relisten() {
+        Table current = table;
+        table = new Table(current.registered, current.listeners, current.consumables, listened(current.listeners));
+    }
+
+    /**
+     * Compile the dispatch plan of the specified bucket which contains only the enabled definitions.
+     * 
+     * @param registered All registered definitions.
+     * @param listeners The enabled definitions.
+     * @param consumables The enabled and consumable definitions.
+     * @param type The event type.
+     * @param index The bucket index.
+     */
+    private static void compile(MacroDefinition[][][] registered, MacroDefinition[][][] listeners, MacroDefinition[][][] consumables, int type, int index) {
+        MacroDefinition[] enabled = Stream.of(registered[type][index]).filter(macro -> macro.enable.is(TRUE)).toArray(MacroDefinition[]::new);
+
+        listeners[type][index] = enabled.length == 0 ? EMPTY : enabled;
+        consumables[type][index] = Stream.of(enabled).filter(macro -> macro.consumable).toArray(MacroDefinition[]::new);
+
+        if (type == Press) {
+            // the autorepeat is consumed as well as the first press, but it is delivered to the opted-in
+            listeners[Repeat][index] = Stream.of(enabled).filter(macro -> macro.repeat).toArray(MacroDefinition[]::new);
+            consumables[Repeat][index] = consumables[Press][index];
+        }
+    }
+
+    /**
+     * Compute the union of all keys which are listened by any definition or state watcher.
+     * 
+     * @param listeners The event listeners.
+     * @return The union of keys.
+     */
+    private static KeySet listened(MacroDefinition[][][] listeners) {
+        KeySet keys = KeyState.watched();
+        for (int type : new int[] {Press, Release}) {
+            for (MacroDefinition[] bucket : listeners[type]) {
+                if (bucket.length != 0) {
+                    keys = keys.union(bucket[0].keys);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The subscriber of definition with its own delivery lane.
+     */
+    private final class Subscriber {
+
+        /** The actual listener. */
+        private final Observer<? super KeyEvent> observer;
+
+        /** The delivery lane. */
+        private final Lane lane;
+
+        /** The latest pending event for coalescing definition, null for the non-coalescing one. */
+        private final AtomicReference<InputEvent> pending;
+
+        /** The number of samples which were overwritten by the pending event. */
+        private final AtomicInteger skipped = new AtomicInteger();
+
+        /**
+         * @param observer
+         */
+        private Subscriber(Observer<? super KeyEvent> observer) {
+            this.observer = observer;
+            this.lane = group != null ? group : new Lane(options);
+            this.pending = coalesce ? new AtomicReference() : null;
+        }
+
+        /**
+         * Deliver the event through the lane. The coalescing subscriber keeps only the latest event
+         * while the previous delivery is pending, so it receives the event once per scheduling slot
+         * with the number of overwritten samples.
+         * 
+         * @param event The event to deliver.
+         * @param executor The executor to drain the lane.
+         */
+        private void post(InputEvent event, Executor executor) {
+            if (pending == null) {
+                lane.post(() -> deliver(event), executor);
+            } else if (pending.getAndSet(event) == null) {
+                if (!lane.post(this::flush, executor)) {
+                    // no flush will be scheduled for the discarded event, the next event must post it
+                    pending.set(null);
+                }
+            } else {
+                skipped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Deliver the latest pending event.
+         */
+        private void flush() {
+            InputEvent event = pending.getAndSet(null);
+            int count = skipped.getAndSet(0);
+
+            if (event != null) {
+                deliver(event.merge(count));
+            }
+        }
+
+        /**
+         * Deliver the event to the listener. The macro body is not wrapped in the input batch, the
+         * body may wait by any means (e.g. polling the key state or the pixel color) and each
+         * emulation must reach the system immediately.
+         * 
+         * @param event
+         */
+        private void deliver(InputEvent event) {
+            observer.accept(event);
+        }
+    }
+
+    /**
+     * The immutable snapshot of the published definitions.
+     */
+    static final class Table {
+
+        /**
+         * All registered definitions for each event type, indexed by {@link Key#ordinal()} for key
+         * events and {@link Mouse#ordinal()} for mouse actions.
+         */
+        private final MacroDefinition[][][] registered;
+
+        /** The enabled subset of the registered definitions, it is the compiled dispatch plan. */
+        final MacroDefinition[][][] listeners;
+
+        /**
+         * The consumable subset of {@link #listeners}. The empty bucket is the precomputed decision
+         * that the native hook can pass the event through without evaluating any condition.
+         */
+        final MacroDefinition[][][] consumables;
+
+        /** The union of all keys which are listened by any definition or state watcher. */
+        final KeySet listened;
+
+        /**
+         * Build the empty table.
+         */
+        private Table() {
+            this(buckets(), buckets(), buckets(), KeySet.EMPTY);
+        }
+
+        /**
+         * @param registered
+         * @param listeners
+         * @param consumables
+         * @param listened
+         */
+        private Table(MacroDefinition[][][] registered, MacroDefinition[][][] listeners, MacroDefinition[][][] consumables, KeySet listened) {
+            this.registered = registered;
+            this.listeners = listeners;
+            this.consumables = consumables;
+            this.listened = listened;
+        }
+
+        /**
+         * Create the empty buckets.
+         * 
+         * @return
+         */
+        private static MacroDefinition[][][] buckets() {
+            MacroDefinition[][][] buckets = {new MacroDefinition[Key.values().length][], new MacroDefinition[Key.values().length][],
+                    new MacroDefinition[Mouse.values().length][], new MacroDefinition[Key.values().length][]};
+            for (MacroDefinition[][] bucket : buckets) {
+                Arrays.fill(bucket, EMPTY);
+            }
+            return buckets;
+        }
     }
 }
\ No newline at end of file
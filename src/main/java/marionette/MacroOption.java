@@ -9,6 +9,63 @@
  */
 package marionette;
 
+import java.util.concurrent.TimeUnit;
+
 public enum MacroOption {
-    IgnoreEvent
+
+    /**
+     * Consume the native event, so the other applications never receive it.
+     */
+    IgnoreEvent,
+
+    /**
+     * Run the macro on a virtual thread instead of the shared platform thread pool. The blocking
+     * operations (e.g. {@link Macro#delay(int)}) release the carrier thread, so many concurrently
+     * waiting macros cost only a little memory.
+     */
+    VirtualThread,
+
+    /**
+     * Ignore the trigger while the previous execution of the macro is still running.
+     */
+    Drop,
+
+    /**
+     * Keep only the latest trigger while the previous execution of the macro is still running,
+     * the older pending triggers are discarded.
+     */
+    Latest,
+
+    /**
+     * Queue the triggers while the previous execution of the macro is still running and execute
+     * them in order. The triggers over the bound (16) are discarded. This is the default policy.
+     */
+    Queue,
+
+    /**
+     * Execute every trigger immediately even if the previous execution of the macro is still
+     * running.
+     */
+    Parallel,
+
+    /**
+     * Receive every {@link Mouse#Move} sample. The mouse move events are coalesced by default, the
+     * latest location wins and the listener receives it once per scheduling slot.
+     */
+    FullFidelity,
+
+    /**
+     * Run the macro directly on the event dispatcher thread without the hop to the pool. It suits
+     * a tiny macro which only emulates a few inputs. Each run is measured against the budget (see
+     * {@link Macro#inlineBudget(long, TimeUnit)}) and the macro which overruns it, or waits by
+     * {@link Macro#delay(int)}, is demoted to the pooled execution permanently. Note that the run
+     * which causes the demotion still completes on the dispatcher, all other events wait for it.
+     */
+    Inline,
+
+    /**
+     * Receive the key autorepeat which the system generates while the key is held. The repeated
+     * key down events are filtered out by default.
+     */
+    Repeat;
 }
\ No newline at end of file
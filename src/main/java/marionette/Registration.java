@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import kiss.Disposable;
+import kiss.Variable;
+
+/**
+ * The handle of all definitions and resources which are declared by one {@link Macro}. The
+ * definitions declared inside the transaction are published with one atomic swap at commit, and
+ * the whole registration is removed from the dispatch path on dispose.
+ */
+class Registration implements Disposable {
+
+    /** The registered definitions. */
+    private final List<MacroDefinition> definitions = new ArrayList();
+
+    /** The other resources which are released on dispose. */
+    private final List<Disposable> resources = new ArrayList();
+
+    /** The interned declarations for each activation state. */
+    private final Map<Variable, Map<List, Object>> interned = new IdentityHashMap();
+
+    /** The definitions which are not published yet, null when no transaction is running. */
+    private List<MacroDefinition> pending;
+
+    /** The disposed state. */
+    private boolean disposed;
+
+    /**
+     * Start the registration transaction.
+     */
+    synchronized void begin() {
+        pending = new ArrayList();
+    }
+
+    /**
+     * Publish all definitions which are registered in the transaction at once.
+     */
+    synchronized void commit() {
+        List<MacroDefinition> added = pending;
+        pending = null;
+
+        if (added != null && !disposed) {
+            MacroDefinition.publish(added, List.of());
+        }
+    }
+
+    /**
+     * Retrieve the declaration which is identical to the specified signature, the new one is built
+     * only when it is absent. The dispatch plan is recompiled whenever the activation state of any
+     * declaration is changed.
+     * 
+     * @param enable The activation state.
+     * @param signature The signature of declaration.
+     * @param builder The declaration builder.
+     * @return The interned declaration.
+     */
+    synchronized <T> T intern(Variable<Boolean> enable, List signature, Supplier<T> builder) {
+        Map<List, Object> declarations = interned.computeIfAbsent(enable, key -> {
+            resources.add(enable.observe().to(MacroDefinition::recompile));
+            return new HashMap();
+        });
+        Object declaration = declarations.get(signature);
+        if (declaration == null) {
+            declaration = builder.get();
+            declarations.put(signature, declaration);
+        }
+        return (T) declaration;
+    }
+
+    /**
+     * Register the definition. It is published immediately when no transaction is running.
+     * 
+     * @param definition
+     */
+    synchronized void add(MacroDefinition definition) {
+        definitions.add(definition);
+
+        if (pending != null) {
+            pending.add(definition);
+        } else {
+            MacroDefinition.publish(List.of(definition), List.of());
+        }
+    }
+
+    /**
+     * Register the resource which is released on dispose.
+     * 
+     * @param resource
+     */
+    @Override
+    public synchronized Disposable add(Disposable resource) {
+        resources.add(resource);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void vandalize() {
+        if (!disposed) {
+            disposed = true;
+
+            List<MacroDefinition> published = new ArrayList(definitions);
+            if (pending != null) {
+                published.removeAll(pending);
+                pending = null;
+            }
+            MacroDefinition.publish(List.of(), published);
+
+            for (Disposable resource : resources) {
+                resource.dispose();
+            }
+            definitions.clear();
+            resources.clear();
+            interned.clear();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import static java.lang.Boolean.TRUE;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.sun.jna.Memory;
+
+import kiss.Disposable;
+import kiss.Variable;
+
+/**
+ * Declarative key remapping which is evaluated synchronously inside the keyboard hook. The
+ * replacement inputs are built into contiguous native memory when the remap is declared, so the
+ * hook swallows the original event and injects the whole replacement with a single SendInput call
+ * without any executor involvement.
+ */
+class Remap implements Disposable {
+
+    /** The empty bucket. */
+    private static final Remap[] EMPTY = new Remap[0];
+
+    /** The remaps indexed by {@link Key#ordinal()} of the source key. */
+    private static final AtomicReferenceArray<Remap[]> table = new AtomicReferenceArray(Key.values().length);
+
+    static {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, EMPTY);
+        }
+    }
+
+    /** The window condition. */
+    private final Predicate<Window> windowCondition;
+
+    /** The activation state. */
+    private final Variable<Boolean> enable;
+
+    /** The native inputs which press the replacement keys in order. */
+    private final Memory press;
+
+    /** The native inputs which release the replacement keys in reverse order. */
+    private final Memory release;
+
+    /** The number of the replacement keys. */
+    private final int count;
+
+    /** The source keys. */
+    private final KeySet keys;
+
+    /** The requirement of the keyboard hook. */
+    private final Disposable requirement;
+
+    /**
+     * @param from The source key.
+     * @param to The replacement keys.
+     * @param windowCondition The window condition.
+     * @param enable The activation state.
+     */
+    Remap(Key from, Key[] to, Predicate<Window> windowCondition, Variable<Boolean> enable) {
+        if (to.length == 0) {
+            throw new IllegalArgumentException("Remap [" + from + "] requires at least one replacement key.");
+        }
+
+        this.windowCondition = windowCondition;
+        this.enable = enable;
+        this.press = new Memory((long) to.length * InputBatch.Size);
+        this.release = new Memory((long) to.length * InputBatch.Size);
+        this.count = to.length;
+
+        for (int i = 0; i < to.length; i++) {
+            InputBatch.key(press, (long) i * InputBatch.Size, to[i], true);
+            InputBatch.key(release, (long) i * InputBatch.Size, to[to.length - 1 - i], false);
+        }
+
+        this.keys = KeySet.of(from);
+        for (Key variant : keys.keys()) {
+            Remap[] current, next;
+            do {
+                current = table.get(variant.ordinal());
+                next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = this;
+            } while (!table.compareAndSet(variant.ordinal(), current, next));
+        }
+        this.requirement = GlobalEvents.require(true, false, enable);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void vandalize() {
+        for (Key variant : keys.keys()) {
+            Remap[] current, next;
+            do {
+                current = table.get(variant.ordinal());
+                next = Stream.of(current).filter(remap -> remap != this).toArray(Remap[]::new);
+            } while (!table.compareAndSet(variant.ordinal(), current, next));
+        }
+        requirement.dispose();
+    }
+
+    /**
+     * Inject the replacement inputs. This method is called on the hook thread.
+     * 
+     * @param press Press or release.
+     */
+    void inject(boolean press) {
+        InputBatch.send(press ? this.press : release, count);
+    }
+
+    /**
+     * Find the active remap of the specified source key. This method is called on the hook thread.
+     * 
+     * @param index The ordinal of the source key.
+     * @return The active remap or null.
+     */
+    static Remap find(int index) {
+        Remap[] remaps = table.get(index);
+        if (remaps.length == 0) {
+            return null;
+        }
+
+        Window now = GlobalEvents.foreground();
+        for (Remap remap : remaps) {
+            if (remap.enable.is(TRUE) && GlobalEvents.decide(remap.windowCondition, now)) {
+                return remap;
+            }
+        }
+        return null;
+    }
+}
\ No newline at end of file
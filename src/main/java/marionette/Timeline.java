@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * The precompiled sequence of emulated input. The fixed script (e.g. press H, wait 250ms and click)
+ * is compiled only once into the native INPUT records, and the records which are emitted at the
+ * same time are grouped into one segment with the relative timestamp. The replay submits each
+ * segment with a single SendInput call and waits on the {@link TimerWheel}, so it involves neither
+ * interpretation nor allocation. The timestamps are relative to the start of replay, so the waiting
+ * error never accumulates.
+ * 
+ * @see Macro#timeline()
+ * @see Macro#play(Timeline)
+ */
+public final class Timeline {
+
+    /** The native INPUT records. */
+    private final Memory inputs;
+
+    /** The head of each segment. */
+    private final Pointer[] segments;
+
+    /** The number of records in each segment. */
+    private final int[] counts;
+
+    /** The relative time of each segment in nanoseconds. */
+    private final long[] times;
+
+    /**
+     * Hide constructor.
+     * 
+     * @param builder
+     */
+    private Timeline(Builder builder) {
+        int segment = builder.segment + 1;
+
+        this.inputs = new Memory(Math.max(1, (long) builder.size * InputBatch.Size));
+        this.segments = new Pointer[segment];
+        this.counts = Arrays.copyOf(builder.counts, segment);
+        this.times = Arrays.copyOf(builder.times, segment);
+
+        if (builder.size != 0) {
+            inputs.write(0, builder.inputs.getByteArray(0, builder.size * InputBatch.Size), 0, builder.size * InputBatch.Size);
+        }
+
+        for (int i = 0, index = 0; i < segment; i++) {
+            segments[i] = inputs.share((long) index * InputBatch.Size);
+            index += counts[i];
+        }
+    }
+
+    /**
+     * Retrieve the total duration of this timeline.
+     * 
+     * @param unit The time unit.
+     * @return
+     */
+    public long duration(TimeUnit unit) {
+        return unit.convert(times[times.length - 1], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Replay this timeline on the current thread.
+     */
+    void play() {
+        // the events before the timeline must reach the system before replaying
+        InputBatch.flushCurrent();
+
+        if (0 < times[times.length - 1]) {
+            MacroDefinition.waiting();
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < segments.length; i++) {
+            long wait = start + times[i] - System.nanoTime();
+            if (0 < wait) {
+                TimerWheel.sleep(wait);
+            }
+
+            if (counts[i] != 0) {
+                InputBatch.send(segments[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * The builder of {@link Timeline}.
+     */
+    public static final class Builder {
+
+        /** The growable native INPUT records. */
+        private Memory inputs = new Memory(16L * InputBatch.Size);
+
+        /** The number of records. */
+        private int size;
+
+        /** The number of records in each segment. */
+        private int[] counts = new int[8];
+
+        /** The relative time of each segment in nanoseconds. */
+        private long[] times = new long[8];
+
+        /** The index of the current segment. */
+        private int segment;
+
+        /**
+         * Hide constructor.
+         */
+        Builder() {
+        }
+
+        /**
+         * Emulate press event.
+         * 
+         * @param key
+         * @return
+         */
+        public Builder press(Key key) {
+            InputBatch.key(next(), (long) (size - 1) * InputBatch.Size, key, true);
+            return this;
+        }
+
+        /**
+         * Emulate release event.
+         * 
+         * @param key
+         * @return
+         */
+        public Builder release(Key key) {
+            InputBatch.key(next(), (long) (size - 1) * InputBatch.Size, key, false);
+            return this;
+        }
+
+        /**
+         * Emulate press and release event in series.
+         * 
+         * @param keys
+         * @return
+         */
+        public Builder input(Key... keys) {
+            for (Key key : keys) {
+                press(key);
+                release(key);
+            }
+            return this;
+        }
+
+        /**
+         * Emulate press and release event in parallel.
+         * 
+         * @param keys
+         * @return
+         */
+        public Builder inputParallel(Key... keys) {
+            for (int i = 0; i < keys.length; i++) {
+                press(keys[i]);
+            }
+
+            for (int i = keys.length - 1; 0 <= i; i--) {
+                release(keys[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Emulate mouse move event.
+         * 
+         * @param x The screen location.
+         * @param y The screen location.
+         * @return
+         */
+        public Builder mouseMoveTo(int x, int y) {
+            InputBatch.move(next(), (long) (size - 1) * InputBatch.Size, Macro.normalizeX(x), Macro.normalizeY(y));
+            return this;
+        }
+
+        /**
+         * Wait for the specified time before the subsequent events.
+         * 
+         * @param ms A time to wait.
+         * @return
+         */
+        public Builder delay(int ms) {
+            if (0 < ms) {
+                long time = times[segment] + TimeUnit.MILLISECONDS.toNanos(ms);
+
+                if (counts[segment] == 0) {
+                    // the current segment has no event, so it is simply postponed
+                    times[segment] = time;
+                } else {
+                    if (++segment == times.length) {
+                        counts = Arrays.copyOf(counts, segment * 2);
+                        times = Arrays.copyOf(times, segment * 2);
+                    }
+                    times[segment] = time;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Compile the sequence into the immutable {@link Timeline}.
+         * 
+         * @return
+         */
+        public Timeline compile() {
+            return new Timeline(this);
+        }
+
+        /**
+         * Allocate the next record in the current segment.
+         * 
+         * @return The native INPUT records.
+         */
+        private Memory next() {
+            if ((long) size * InputBatch.Size == inputs.size()) {
+                Memory expanded = new Memory(inputs.size() * 2);
+                expanded.write(0, inputs.getByteArray(0, (int) inputs.size()), 0, (int) inputs.size());
+                inputs = expanded;
+            }
+            size++;
+            counts[segment]++;
+            return inputs;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.jna.Native;
+
+import kiss.I;
+
+/**
+ * The shared high-resolution scheduler of {@link Macro#delay(int)}. The waiting thread is parked
+ * (the virtual thread releases its carrier) and registered to the hashed timer wheel, the single
+ * timer thread wakes it up slightly before the deadline, the waiting thread parks again until the
+ * last 1.5 milliseconds, yields the processor until the last 100 microseconds and spins only the
+ * rest. The timed parking is rounded up to the whole millisecond on Windows, so it is never used
+ * for the sub-millisecond remainder. Thus the delay is accurate to the sub-millisecond without
+ * burning any processor for the most of the waiting time. Note that the waiting platform thread
+ * (the pooled mode) is still held for the whole waiting time, only the virtual thread releases
+ * its carrier. The system timer resolution is raised only while any thread is waiting.
+ */
+final class TimerWheel implements Runnable {
+
+    /** The tick duration in nanoseconds. */
+    private static final long Tick = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** The number of slots, it must be power of two. */
+    private static final int Slots = 512;
+
+    /** The remaining time (in nanoseconds) which is waited by short parking instead of the wheel. */
+    private static final long Approach = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /** The remaining time (in nanoseconds) which is waited by yielding instead of parking. */
+    private static final long Yield = TimeUnit.MICROSECONDS.toNanos(1500);
+
+    /** The remaining time (in nanoseconds) which is waited by busy spin instead of yielding. */
+    private static final long Spin = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /** The system timer resolution is adjustable or not. */
+    private static final boolean adjustable = adjustable();
+
+    /** The shared scheduler. */
+    private static final TimerWheel wheel = new TimerWheel();
+
+    /** The newly registered entries, they are moved into the wheel by the timer thread. */
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue();
+
+    /** The wheel slots, accessed by the timer thread only. */
+    private final List<Entry>[] slots = new List[Slots];
+
+    /** The base time of ticks. */
+    private final long start = System.nanoTime();
+
+    /** The timer thread. */
+    private final Thread thread;
+
+    /** The number of entries in the wheel, accessed by the timer thread only. */
+    private int size;
+
+    /** The current tick, accessed by the timer thread only. */
+    private long tick;
+
+    /**
+     * Hide constructor.
+     */
+    private TimerWheel() {
+        for (int i = 0; i < Slots; i++) {
+            slots[i] = new ArrayList();
+        }
+
+        thread = new Thread(this);
+        thread.setName(TimerWheel.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Wait for the specified time on the current thread.
+     * 
+     * @param nanos The waiting time in nanoseconds.
+     */
+    static void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+
+        // the fine parking requires the raised timer resolution, the request is reference counted
+        if (adjustable) {
+            Winmm.timeBeginPeriod(1);
+        }
+
+        try {
+            if (Approach < nanos) {
+                Entry entry = new Entry(deadline - Approach, Thread.currentThread());
+                wheel.incoming.add(entry);
+                LockSupport.unpark(wheel.thread);
+
+                while (!entry.fired) {
+                    LockSupport.park(wheel);
+                    interrupted();
+                }
+            }
+
+            // park until the final approach, the parking time is rounded up to the millisecond
+            long remaining;
+            while (Yield < (remaining = deadline - System.nanoTime())) {
+                LockSupport.parkNanos(wheel, remaining - Yield);
+                interrupted();
+            }
+
+            // yield the final approach
+            while (Spin < deadline - System.nanoTime()) {
+                Thread.yield();
+            }
+            interrupted();
+
+            // spin the last moment
+            while (System.nanoTime() - deadline < 0) {
+                Thread.onSpinWait();
+            }
+        } finally {
+            if (adjustable) {
+                Winmm.timeEndPeriod(1);
+            }
+        }
+        DelayAccuracy.record(System.nanoTime() - deadline);
+    }
+
+    /**
+     * Throw the interruption of the waiting thread.
+     */
+    private static void interrupted() {
+        if (Thread.interrupted()) {
+            throw I.quiet(new InterruptedException());
+        }
+    }
+
+    /**
+     * Test whether the system timer resolution is adjustable or not.
+     * 
+     * @return
+     */
+    private static boolean adjustable() {
+        try {
+            Winmm.timeBeginPeriod(1);
+            Winmm.timeEndPeriod(1);
+            return true;
+        } catch (Throwable e) {
+            // the coarse timer resolution makes the delay less accurate, but it still works
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long now = System.nanoTime();
+
+            // skip the idle ticks at once
+            if (size == 0) {
+                tick = Math.max(tick, (now - start) / Tick);
+            }
+
+            // register new entries
+            Entry entry;
+            while ((entry = incoming.poll()) != null) {
+                long target = Math.max(tick, (entry.fireAt - start + Tick - 1) / Tick);
+                slots[(int) (target & (Slots - 1))].add(entry);
+                entry.tick = target;
+                size++;
+            }
+
+            // expire all elapsed ticks
+            while (start + tick * Tick <= now) {
+                expire(slots[(int) (tick & (Slots - 1))]);
+                tick++;
+            }
+
+            if (size == 0 && incoming.isEmpty()) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, start + tick * Tick - System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Fire the entries of the current tick, the entries of the later rounds are left.
+     * 
+     * @param slot The current slot.
+     */
+    private void expire(List<Entry> slot) {
+        for (int i = slot.size() - 1; 0 <= i; i--) {
+            Entry entry = slot.get(i);
+            if (entry.tick <= tick) {
+                slot.set(i, slot.get(slot.size() - 1));
+                slot.remove(slot.size() - 1);
+                size--;
+
+                entry.fired = true;
+                LockSupport.unpark(entry.thread);
+            }
+        }
+    }
+
+    /**
+     * The waiting thread.
+     */
+    private static final class Entry {
+
+        /** The time to wake up the thread. */
+        private final long fireAt;
+
+        /** The waiting thread. */
+        private final Thread thread;
+
+        /** The target tick, accessed by the timer thread only. */
+        private long tick;
+
+        /** The fired state. */
+        private volatile boolean fired;
+
+        /**
+         * @param fireAt
+         * @param thread
+         */
+        private Entry(long fireAt, Thread thread) {
+            this.fireAt = fireAt;
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * The direct mapping of WINMM.DLL.
+     */
+    private static final class Winmm {
+
+        static {
+            Native.register("winmm");
+        }
+
+        /**
+         * Requests a minimum resolution for periodic timers.
+         * 
+         * @param uPeriod Minimum timer resolution, in milliseconds.
+         * @return TIMERR_NOERROR if successful.
+         */
+        private static native int timeBeginPeriod(int uPeriod);
+
+        /**
+         * Clears a previously set minimum timer resolution.
+         * 
+         * @param uPeriod Minimum timer resolution specified in the previous call to timeBeginPeriod.
+         * @return TIMERR_NOERROR if successful.
+         */
+        private static native int timeEndPeriod(int uPeriod);
+    }
+}
\ No newline at end of file
@@ -36,6 +36,15 @@ public class Window {
         this.windowID = windowID;
     }
 
+    /**
+     * Retrieve the native window identifier.
+     * 
+     * @return
+     */
+    Object id() {
+        return windowID;
+    }
+
     /**
      * <p>
      * ウインドウタイトルを返します。
@@ -189,6 +198,16 @@ public class Window {
     public static void open(Path path) {
     }
 
+    /**
+     * Get the window by the native identifier.
+     * 
+     * @param windowID
+     * @return
+     */
+    static Window of(Object windowID) {
+        return new Window(windowID);
+    }
+
     /**
      * Get the current window.
      * 
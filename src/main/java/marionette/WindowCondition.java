@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import kiss.I;
+
+/**
+ * Window condition which remembers its last decision. The cached decision is valid while the
+ * foreground window and its title are unchanged, so the native title lookup runs only once per
+ * window state instead of once per event.
+ */
+class WindowCondition implements Predicate<Window> {
+
+    /** The condition which accepts any window. */
+    static final Predicate<Window> Any = I::accept;
+
+    /** The actual condition. */
+    private final Predicate<Window> condition;
+
+    /** The last decision. */
+    private volatile Decision last;
+
+    /**
+     * @param condition The actual condition.
+     */
+    WindowCondition(Predicate<Window> condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean test(Window window) {
+        // read the generation before evaluation, a concurrent change will invalidate the result
+        long generation = GlobalEvents.windowGeneration();
+        if (generation < 0) {
+            return condition.test(window);
+        }
+
+        Decision decision = last;
+        if (decision != null && decision.generation == generation && Objects.equals(decision.id, window.id())) {
+            return decision.result;
+        }
+
+        boolean result = condition.test(window);
+        last = new Decision(window.id(), generation, result);
+        return result;
+    }
+
+    /**
+     * Retrieve the precomputed decision without evaluating the actual condition.
+     * 
+     * @param window The target window.
+     * @return The cached decision, or false when no decision is available for the window state.
+     */
+    boolean decided(Window window) {
+        long generation = GlobalEvents.windowGeneration();
+        Decision decision = last;
+        return 0 <= generation && decision != null && decision.generation == generation && Objects.equals(decision.id, window.id()) && decision.result;
+    }
+
+    /**
+     * The decision for the specific window state.
+     */
+    private static final class Decision {
+
+        /** The window identifier. */
+        private final Object id;
+
+        /** The window state generation. */
+        private final long generation;
+
+        /** The result. */
+        private final boolean result;
+
+        /**
+         * @param id
+         * @param generation
+         * @param result
+         */
+        private Decision(Object id, long generation, boolean result) {
+            this.id = id;
+            this.generation = generation;
+            this.result = result;
+        }
+    }
+}
\ No newline at end of file
@@ -89,6 +89,7 @@ public class EasyMacro extends View {
          */
         private void loadMacro() {
             if (loader != null) {
+                macros.forEach(Macro::dispose);
                 macros.clear();
                 loader.dispose();
             }
@@ -96,7 +97,7 @@ public class EasyMacro extends View {
             loader = I.signal(directories).map(path -> path.toURI().toURL()).to(I::load);
 
             for (Macro macro : I.find(Macro.class)) {
-                macro.declare();
+                macro.install();
                 macros.add(macro);
             }
         }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import kiss.Variable;
+
+class EventRingTest {
+
+    /** The number of events in the measurement. */
+    private static final int Events = 100000;
+
+    /** The acceptable noise of the allocation measurement in bytes. */
+    private static final long Noise = 1024;
+
+    /** The allocation counter. */
+    private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The consumer which only reads the listeners of the received records, it stands in for the
+     * dispatcher which allocates the event for each matched definition.
+     */
+    private static class Counter implements EventRing.Handler {
+
+        /** The number of received records. */
+        private volatile long count;
+
+        /** The checksum of received records. */
+        private long sum;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle(long sequence, int type, int index, int x, int y, long time, double delta) {
+            MacroDefinition.Table table = MacroDefinition.table;
+            sum += table.listeners[type][index].length + sequence + x + y + time;
+            count++;
+        }
+    }
+
+    /**
+     * Publish the records as the keyboard hook does, the pressed state is updated and the listened
+     * keys are tested before publishing.
+     * 
+     * @param ring The target ring.
+     * @param from The first sequence number.
+     * @param count The number of records.
+     */
+    private void publish(EventRing ring, long from, int count) {
+        Key[] keys = {Key.A, Key.S, Key.D, Key.F};
+
+        for (int i = 0; i < count; i++) {
+            Key key = keys[i & 3];
+            boolean press = (i & 4) == 0;
+            int type = press ? MacroDefinition.Press : MacroDefinition.Release;
+
+            KeyState.update(key, press);
+            MacroDefinition.table.listened.contains(key.ordinal());
+            while (!ring.publish(from + i, type, key.ordinal(), i, -i, i, 0)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @Test
+    void ringPublishIsAllocationFree() throws Exception {
+        EventRing ring = new EventRing(1024);
+        Counter counter = new Counter();
+        Thread consumer = new Thread(() -> ring.consume(counter));
+        consumer.start();
+
+        try {
+            // warm up
+            publish(ring, 0, Events);
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            publish(ring, Events, Events);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            assert allocated < Noise : allocated;
+        } finally {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+
+    @Test
+    void ringConsumeIsAllocationFree() throws Exception {
+        EventRing ring = new EventRing(1024);
+        Counter counter = new Counter();
+        Thread consumer = new Thread(() -> ring.consume(counter));
+        consumer.start();
+
+        try {
+            // warm up
+            publish(ring, 0, Events);
+            while (counter.count < Events) {
+                Thread.onSpinWait();
+            }
+
+            long before = threads.getThreadAllocatedBytes(consumer.threadId());
+            publish(ring, Events, Events);
+            while (counter.count < 2 * Events) {
+                Thread.onSpinWait();
+            }
+            long allocated = threads.getThreadAllocatedBytes(consumer.threadId()) - before;
+
+            assert allocated < Noise : allocated;
+        } finally {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+
+    @Test
+    void hookHandleIsAllocationFree() {
+        Key[] keys = {Key.A, Key.S, Key.D, Key.F};
+        Variable<Boolean> enable = Variable.of(true);
+        List<MacroDefinition> definitions = List.of(new MacroDefinition(MacroDefinition.Press, new int[] {Key.A
+                .ordinal()}, KeySet.of(Key.A), WindowCondition.Any, enable, null, Set.of(), false));
+        MacroDefinition.publish(definitions, List.of());
+
+        try {
+            HeadlessHook hook = new HeadlessHook();
+
+            // warm up
+            for (int i = 0; i < Events; i++) {
+                hook.handle((i & 4) == 0 ? MacroDefinition.Press : MacroDefinition.Release, keys[i & 3].ordinal(), i, -i, i, 0);
+            }
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < Events; i++) {
+                hook.handle((i & 4) == 0 ? MacroDefinition.Press : MacroDefinition.Release, keys[i & 3].ordinal(), i, -i, i, 0);
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            assert allocated < Noise : allocated;
+        } finally {
+            MacroDefinition.publish(List.of(), definitions);
+        }
+    }
+
+    @Test
+    void transitionsAreReservedWhenFull() {
+        EventRing ring = new EventRing(16);
+
+        // fill the shared part of the buffer with mouse actions
+        int accepted = 0;
+        while (ring.publish(accepted, MacroDefinition.Action, 0, 0, 0, 0, 0)) {
+            accepted++;
+        }
+        assert accepted == 12;
+
+        // the reserved part accepts only the transitions
+        assert ring.publish(accepted, MacroDefinition.Press, 0, 0, 0, 0, 0);
+        assert !ring.publish(accepted + 1, MacroDefinition.Repeat, 0, 0, 0, 0, 0);
+        assert ring.dropped() == 2;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import com.sun.jna.Pointer;
+
+/**
+ * The hook which has no native part, only the shared {@link GlobalEvents.NativeHook#handle}
+ * is used.
+ */
+class HeadlessHook extends GlobalEvents.NativeHook {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void probe(Pointer input) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int hookType() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean process(int message, Pointer info) {
+        return false;
+    }
+}
\ No newline at end of file
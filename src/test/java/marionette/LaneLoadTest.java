@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import kiss.Disposable;
+import kiss.Variable;
+
+class LaneLoadTest {
+
+    /** The number of concurrently triggered macros. */
+    private static final int Macros = 1024;
+
+    /** The maximum size of the pooled executor of {@link GlobalEvents}. */
+    private static final int PoolSize = 256;
+
+    /** The blocking time of each macro body in milliseconds. */
+    private static final int Body = 20;
+
+    /** The time limit of the test in milliseconds. */
+    private static final long Limit = 10000;
+
+    /** The completion counter of each macro. */
+    private final AtomicIntegerArray completed = new AtomicIntegerArray(Macros);
+
+    /** The number of currently running macro bodies. */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /** The peak number of concurrently running macro bodies. */
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /** The subscriptions in the test. */
+    private final List<Disposable> subscriptions = new ArrayList();
+
+    @AfterEach
+    void clear() {
+        subscriptions.forEach(Disposable::dispose);
+    }
+
+    /**
+     * Define the macros with the specified options, each macro body blocks as
+     * {@link Macro#delay(int)} does.
+     * 
+     * @param options The macro options.
+     * @return The definitions.
+     */
+    private MacroDefinition[] define(MacroOption... options) {
+        MacroDefinition[] macros = new MacroDefinition[Macros];
+
+        for (int i = 0; i < macros.length; i++) {
+            int index = i;
+            macros[i] = new MacroDefinition(MacroDefinition.Press, new int[] {Key.A.ordinal()}, KeySet.of(Key.A), WindowCondition.Any, Variable
+                    .of(true), null, Set.of(options), false);
+            subscriptions.add(macros[i].events.to(e -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(Body);
+                } catch (InterruptedException x) {
+                    throw new Error(x);
+                } finally {
+                    running.decrementAndGet();
+                }
+                completed.incrementAndGet(index);
+            }));
+        }
+        return macros;
+    }
+
+    /**
+     * Trigger all macros which have not completed yet through the executor which is selected by
+     * the dispatcher.
+     * 
+     * @param macros The target definitions.
+     */
+    private void trigger(MacroDefinition[] macros) {
+        for (int i = 0; i < macros.length; i++) {
+            if (completed.get(i) == 0) {
+                macros[i].post(new InputEvent(i, 0, 0, 0, 0, 0), GlobalEvents.executor(macros[i]));
+            }
+        }
+    }
+
+    /**
+     * Wait until every macro completes.
+     * 
+     * @param macros The target definitions.
+     * @param retrigger Trigger the incomplete macros again or not.
+     * @return Whether all macros completed within the limit or not.
+     */
+    private boolean await(MacroDefinition[] macros, boolean retrigger) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Limit);
+
+        while (System.nanoTime() - deadline < 0) {
+            if (count() == Macros) {
+                return true;
+            }
+            Thread.sleep(Body);
+
+            if (retrigger) {
+                trigger(macros);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the macros which completed at least once.
+     * 
+     * @return
+     */
+    private int count() {
+        int count = 0;
+        for (int i = 0; i < completed.length(); i++) {
+            if (0 < completed.get(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void virtualModeRunsWholeBurstConcurrently() throws Exception {
+        MacroDefinition[] macros = define(MacroOption.VirtualThread);
+        trigger(macros);
+
+        assert await(macros, false) : count();
+
+        // the virtual threads are not bounded by the pool
+        assert PoolSize < peak.get() : peak.get();
+    }
+
+    @Test
+    void pooledModeIsBoundedAndRecoversFromSaturation() throws Exception {
+        MacroDefinition[] macros = define();
+        trigger(macros);
+
+        // the lane which was rejected by the saturated pool must drain on the next trigger
+        assert await(macros, true) : count();
+
+        // the platform threads are bounded by the pool
+        assert peak.get() <= PoolSize : peak.get();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2025 The MARIONETTE Development Team
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package marionette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import kiss.Variable;
+
+class MacroDefinitionTest {
+
+    /** The number of definitions in the benchmark. */
+    private static final int Definitions = 10000;
+
+    /** The number of handled events in the benchmark. */
+    private static final int Events = 1000000;
+
+    /** The number of measurements, the fastest one is adopted to exclude the noise. */
+    private static final int Rounds = 5;
+
+    /** The published definitions in the test. */
+    private final List<MacroDefinition> published = new ArrayList();
+
+    @AfterEach
+    void clear() {
+        MacroDefinition.publish(List.of(), published);
+        published.clear();
+    }
+
+    /**
+     * Build the press definition of the specified key.
+     * 
+     * @param key The trigger key.
+     * @param enable The activation state.
+     * @return
+     */
+    private MacroDefinition define(Key key, Variable<Boolean> enable) {
+        MacroDefinition macro = new MacroDefinition(MacroDefinition.Press, new int[] {key.ordinal()}, KeySet.of(key), WindowCondition.Any, enable, null, Set
+                .of(), false);
+        published.add(macro);
+        return macro;
+    }
+
+    /**
+     * Publish the definitions which are spread over all keys except the specified one.
+     * 
+     * @param count The number of definitions.
+     * @param except The key which has no definition.
+     */
+    private void spread(int count, Key except) {
+        Variable<Boolean> enable = Variable.of(true);
+        List<MacroDefinition> definitions = new ArrayList();
+        Key[] keys = Key.values();
+
+        for (int i = 0; definitions.size() < count; i++) {
+            Key key = keys[i % keys.length];
+            if (key != except && key.variants()[0] == key) {
+                definitions.add(define(key, enable));
+            }
+        }
+        MacroDefinition.publish(definitions, List.of());
+    }
+
+    /**
+     * Measure the cost of the hook handler for the press event of the specified key.
+     * 
+     * @param key The target key.
+     * @return The fastest total time in nanoseconds.
+     */
+    private long handle(Key key) {
+        HeadlessHook hook = new HeadlessHook();
+        int index = key.ordinal();
+        long fastest = Long.MAX_VALUE;
+
+        for (int round = 0; round < Rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < Events; i++) {
+                hook.handle(MacroDefinition.Press, index, 0, 0, i, 0);
+            }
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return fastest;
+    }
+
+    /**
+     * Measure the cost of publishing the specified number of definitions.
+     * 
+     * @param count The number of definitions.
+     * @return The fastest time in nanoseconds.
+     */
+    private long publish(int count) {
+        long fastest = Long.MAX_VALUE;
+
+        for (int round = 0; round < Rounds; round++) {
+            long start = System.nanoTime();
+            spread(count, null);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+
+            clear();
+        }
+        return fastest;
+    }
+
+    @Test
+    void publishCostIsLinear() {
+        publish(Definitions); // warm up
+
+        long few = publish(Definitions / 10);
+        long many = publish(Definitions);
+
+        // the quadratic compilation would take 100 times longer
+        assert many < few * 30 : few + " " + many;
+        assert many < TimeUnit.SECONDS.toNanos(5) : many;
+    }
+
+    @Test
+    void publishTenThousandDefinitions() {
+        spread(Definitions, null);
+
+        int count = 0;
+        for (MacroDefinition[] bucket : MacroDefinition.table.listeners[MacroDefinition.Press]) {
+            count += bucket.length;
+        }
+        assert count == Definitions;
+    }
+
+    @Test
+    void dispatchCostIsIndependentOfOtherDefinitions() {
+        Key target = Key.F12;
+        define(target, Variable.of(true));
+        MacroDefinition.publish(List.of(published.get(0)), List.of());
+        handle(target); // warm up
+        long few = handle(target);
+
+        spread(Definitions, target);
+        long many = handle(target);
+
+        // the bucket of the target key is never touched by the other definitions
+        assert MacroDefinition.table.listeners[MacroDefinition.Press][target.ordinal()].length == 1;
+        assert many < few * 3 : few + " " + many;
+    }
+
+    @Test
+    void unlistenedKeyIsRejectedAtOnce() {
+        Key target = Key.F11;
+        spread(Definitions, target);
+
+        assert !MacroDefinition.table.listened.contains(target.ordinal());
+        assert MacroDefinition.table.listeners[MacroDefinition.Press][target.ordinal()].length == 0;
+        assert MacroDefinition.table.consumables[MacroDefinition.Press][target.ordinal()].length == 0;
+    }
+
+    @Test
+    void removeEmptiesBuckets() {
+        spread(Definitions, null);
+        MacroDefinition.publish(List.of(), published);
+
+        for (MacroDefinition[] bucket : MacroDefinition.table.listeners[MacroDefinition.Press]) {
+            assert bucket.length == 0;
+        }
+        assert !MacroDefinition.table.listened.contains(Key.A.ordinal());
+    }
+
+    @Test
+    void disabledDefinitionIsCompiledOut() {
+        Variable<Boolean> enable = Variable.of(false);
+        MacroDefinition.publish(List.of(define(Key.F10, enable)), List.of());
+        assert MacroDefinition.table.listeners[MacroDefinition.Press][Key.F10.ordinal()].length == 0;
+
+        enable.set(true);
+        MacroDefinition.recompile();
+        assert MacroDefinition.table.listeners[MacroDefinition.Press][Key.F10.ordinal()].length == 1;
+    }
+}
\ No newline at end of file